@@ -0,0 +1,80 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package at.jclehner.rxdroid.test;
+
+import java.util.Calendar;
+
+import android.test.AndroidTestCase;
+import at.jclehner.rxdroid.DoseEventJanitor;
+import at.jclehner.rxdroid.Fraction;
+import at.jclehner.rxdroid.db.Database;
+import at.jclehner.rxdroid.db.DoseEvent;
+import at.jclehner.rxdroid.db.Drug;
+import at.jclehner.rxdroid.db.InMemoryBackend;
+import at.jclehner.rxdroid.db.Schedule;
+import at.jclehner.rxdroid.util.DateTime;
+
+public class DoseEventJanitorTest extends AndroidTestCase
+{
+	// Far more days than can be looked at in a single slice
+	private static final int DAYS = 3650;
+
+	private InMemoryBackend mBackend;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		mBackend = new InMemoryBackend();
+
+		// Out of supply, so none of the missing events can be created
+		final Drug drug = new Drug();
+		drug.setName("Drug A");
+		drug.setDose(Schedule.TIME_MORNING, new Fraction(1));
+		drug.setRefillSize(30);
+		drug.setCurrentSupply(Fraction.ZERO);
+		drug.setHasAutoDoseEvents(true);
+		drug.setLastAutoDoseEventCreationDate(DateTime.add(DateTime.today(), Calendar.DAY_OF_MONTH, -DAYS));
+		mBackend.add(drug);
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		Database.reload(getContext());
+		super.tearDown();
+	}
+
+	public void testLongGapWithoutEvents() throws InterruptedException
+	{
+		Database.reload(mBackend);
+		assertTrue(DoseEventJanitor.hasPendingMaintenance());
+
+		for(int i = 0; i != 200 && DoseEventJanitor.hasPendingMaintenance(); ++i)
+			Thread.sleep(50);
+
+		assertFalse(DoseEventJanitor.hasPendingMaintenance());
+		assertEquals(0, Database.countAll(DoseEvent.class));
+	}
+}
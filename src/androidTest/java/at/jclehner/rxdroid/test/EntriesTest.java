@@ -0,0 +1,55 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2013 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.test;
+
+import java.util.Calendar;
+import java.util.Date;
+
+import android.test.AndroidTestCase;
+import at.jclehner.rxdroid.Fraction;
+import at.jclehner.rxdroid.db.Drug;
+import at.jclehner.rxdroid.db.Entries;
+import at.jclehner.rxdroid.db.Schedule;
+import at.jclehner.rxdroid.util.DateTime;
+
+public class EntriesTest extends AndroidTestCase
+{
+	public void testTotalDoseOnWeekdays()
+	{
+		final Drug drug = new Drug();
+		drug.setRepeatMode(Drug.REPEAT_WEEKDAYS);
+		// Two days a week
+		drug.setRepeatArg(0x5);
+		drug.setDose(Schedule.TIME_MORNING, new Fraction(1));
+		drug.setDose(Schedule.TIME_EVENING, new Fraction(1, 2));
+
+		final Calendar cal = DateTime.calendarFromDate(DateTime.today());
+		while(cal.get(Calendar.DAY_OF_WEEK) != Calendar.MONDAY)
+			cal.add(Calendar.DAY_OF_MONTH, 1);
+
+		final Date begin = cal.getTime();
+		final Date end = DateTime.add(begin, Calendar.DAY_OF_MONTH, 14);
+
+		// Two full weeks, with two days of 1 1/2 each
+		assertEquals(new Fraction(6), Entries.getTotalDoseInTimePeriod_smart(drug, begin, end));
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+import at.jclehner.androidutils.EventDispatcher;
+
+public class EventDispatcherTest extends AndroidTestCase
+{
+	private static class Receiver
+	{
+		final List<String> events = new ArrayList<String>();
+
+		void onEvent(String event) {
+			events.add(event);
+		}
+	}
+
+	private static EventDispatcher.Invoker<Receiver> event(final String event)
+	{
+		return new EventDispatcher.Invoker<Receiver>() {
+
+			@Override
+			public void invoke(Receiver receiver) {
+				receiver.onEvent(event);
+			}
+		};
+	}
+
+	public void testRegisterAndUnregister()
+	{
+		final EventDispatcher<Receiver> dispatcher = new EventDispatcher<Receiver>();
+		final Receiver r1 = new Receiver();
+		final Receiver r2 = new Receiver();
+
+		dispatcher.register(r1);
+		dispatcher.register(r1);
+		dispatcher.register(r2);
+		dispatcher.post(event("a"));
+
+		dispatcher.unregister(r1);
+		dispatcher.post(event("b"));
+
+		assertEquals(1, r1.events.size());
+		assertEquals("a", r1.events.get(0));
+		assertEquals(2, r2.events.size());
+	}
+
+	public void testRegisterWhilePosting()
+	{
+		final EventDispatcher<Receiver> dispatcher = new EventDispatcher<Receiver>();
+		final Receiver late = new Receiver();
+
+		dispatcher.register(new Receiver() {
+
+			@Override
+			void onEvent(String event)
+			{
+				super.onEvent(event);
+				dispatcher.unregister(this);
+				dispatcher.register(late);
+			}
+		});
+
+		dispatcher.post(event("a"));
+		assertTrue(late.events.isEmpty());
+
+		dispatcher.post(event("b"));
+		assertEquals(1, late.events.size());
+		assertEquals("b", late.events.get(0));
+	}
+
+	public void testExceptionInHandler()
+	{
+		final EventDispatcher<Receiver> dispatcher = new EventDispatcher<Receiver>();
+		final Receiver r = new Receiver();
+
+		dispatcher.register(new Receiver() {
+
+			@Override
+			void onEvent(String event) {
+				throw new IllegalStateException(event);
+			}
+		});
+		dispatcher.register(r);
+
+		dispatcher.post(event("a"));
+		assertEquals(1, r.events.size());
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2013 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.test;
+
+import android.test.AndroidTestCase;
+import at.jclehner.rxdroid.Fraction;
+import at.jclehner.rxdroid.FractionMath;
+
+public class FractionMathTest extends AndroidTestCase
+{
+	public void testGcd()
+	{
+		assertEquals(6, FractionMath.gcd(48, 18));
+		assertEquals(1, FractionMath.gcd(17, 19));
+		assertEquals(5, FractionMath.gcd(0, 5));
+		assertEquals(5, FractionMath.gcd(5, 0));
+		assertEquals(1L << 40, FractionMath.gcd(1L << 40, 3L << 41));
+		assertEquals(Integer.MAX_VALUE, FractionMath.gcd(Integer.MAX_VALUE, (long) Integer.MAX_VALUE * 4));
+	}
+
+	public void testPack()
+	{
+		assertEquals(FractionMath.ZERO, FractionMath.pack(0, 7));
+		assertEquals(FractionMath.pack(1, 2), FractionMath.pack(4, 8));
+		assertEquals(FractionMath.pack(-1, 2), FractionMath.pack(1, -2));
+		assertEquals(new Fraction(3, 4).toPackedLong(), FractionMath.pack(6, 8));
+
+		try
+		{
+			FractionMath.pack(1, 0);
+			fail();
+		}
+		catch(ArithmeticException e)
+		{
+			// expected
+		}
+	}
+
+	public void testArithmetic()
+	{
+		final long half = FractionMath.pack(1, 2);
+		final long third = FractionMath.pack(1, 3);
+
+		assertEquals(FractionMath.pack(5, 6), FractionMath.add(half, third));
+		assertEquals(FractionMath.pack(1, 6), FractionMath.subtract(half, third));
+		assertEquals(FractionMath.pack(-1, 6), FractionMath.subtract(third, half));
+		assertEquals(FractionMath.ONE, FractionMath.add(half, half));
+		assertEquals(FractionMath.ZERO, FractionMath.subtract(half, half));
+		assertEquals(FractionMath.pack(5, 2), FractionMath.add(half, 2));
+		assertEquals(FractionMath.pack(1, 6), FractionMath.multiply(half, third));
+		assertEquals(FractionMath.pack(3, 2), FractionMath.multiply(half, 3));
+		assertEquals(FractionMath.pack(3, 2), FractionMath.divide(half, third));
+		assertEquals(FractionMath.pack(-3, 2), FractionMath.divide(half, FractionMath.negate(third)));
+		assertEquals(FractionMath.pack(-1, 6), FractionMath.divide(half, -3));
+
+		assertTrue(FractionMath.compare(third, half) < 0);
+		assertTrue(FractionMath.compare(half, third) > 0);
+		assertEquals(0, FractionMath.compare(half, FractionMath.pack(2, 4)));
+		assertTrue(FractionMath.isNegative(FractionMath.negate(half)));
+	}
+
+	public void testOverflow()
+	{
+		// Intermediate results exceed 32 bits, but the result does not
+		final long big = FractionMath.pack(Integer.MAX_VALUE - 1, Integer.MAX_VALUE);
+		assertEquals(FractionMath.ONE, FractionMath.add(big, FractionMath.pack(1, Integer.MAX_VALUE)));
+		assertEquals(FractionMath.pack(Integer.MAX_VALUE - 1, 1), FractionMath.multiply(big, Integer.MAX_VALUE));
+
+		try
+		{
+			FractionMath.add(FractionMath.pack(1, 65537), FractionMath.pack(1, 65539));
+			fail();
+		}
+		catch(ArithmeticException e)
+		{
+			// expected
+		}
+
+		try
+		{
+			FractionMath.multiply(FractionMath.pack(Integer.MAX_VALUE, 1), 2);
+			fail();
+		}
+		catch(ArithmeticException e)
+		{
+			// expected
+		}
+	}
+}
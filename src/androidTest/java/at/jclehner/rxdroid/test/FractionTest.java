@@ -21,6 +21,7 @@
 
 package at.jclehner.rxdroid.test;
 
+import android.os.Parcel;
 import android.test.AndroidTestCase;
 import android.util.Log;
 import at.jclehner.rxdroid.Fraction;
@@ -201,10 +202,128 @@ public class FractionTest extends AndroidTestCase
 		}
 	}
 
+	public void testPackedLong()
+	{
+		for(String s : FRACTIONS)
+		{
+			final Fraction f = Fraction.valueOf(s);
+			assertEquals(f, Fraction.fromPackedLong(f.toPackedLong()));
+		}
+
+		assertEquals(0, Fraction.ZERO.toPackedLong());
+		assertEquals(0, new Fraction(0, 5).toPackedLong());
+		assertSame(Fraction.ZERO, Fraction.fromPackedLong(0));
+
+		final Fraction extreme = new Fraction(Integer.MIN_VALUE + 1, Integer.MAX_VALUE);
+		assertEquals(extreme, Fraction.fromPackedLong(extreme.toPackedLong()));
+	}
+
+	public void testMutableFraction()
+	{
+		final Fraction.MutableFraction f = new Fraction(2, 3).mutate();
+
+		assertEquals(new Fraction(1, 2), f.multiplyBy(new Fraction(3, 4)));
+		assertEquals(new Fraction(3, 4), f.add(new Fraction(1, 4)));
+		assertEquals(new Fraction(-1, 4), f.subtract(1));
+		assertEquals(new Fraction(1, 3), f.divideBy(new Fraction(-3, 4)));
+		assertEquals(new Fraction(1, 6), f.divideBy(2));
+		assertEquals(new Fraction(2, 3), new Fraction(4, 9).times(new Fraction(3, 2)));
+	}
+
+	public void testDecodeStrict()
+	{
+		final String[] invalid = {
+				"",
+				"   ",
+				"5/1 4",
+				"5 1 4",
+				// Was read as 1/2 prior to the single-pass parser
+				"1 2",
+				"/4",
+				"5/",
+				"1 1/2/3",
+				"1 - 1/2",
+				"99999999999"
+		};
+
+		for(String s : invalid)
+		{
+			try
+			{
+				Fraction.valueOf(s);
+				fail("Invalid string did not cause exception: " + s);
+			}
+			catch(NumberFormatException e)
+			{
+				// expected
+			}
+		}
+
+		assertEquals(new Fraction(Integer.MIN_VALUE), Fraction.valueOf(Integer.toString(Integer.MIN_VALUE)));
+		assertEquals(new Fraction(Integer.MAX_VALUE), Fraction.valueOf("+" + Integer.MAX_VALUE));
+	}
+
+	public void testInterning()
+	{
+		assertSame(Fraction.ZERO, Fraction.valueOf("0"));
+		assertSame(Fraction.ZERO, Fraction.valueOf("0/3"));
+		assertSame(Fraction.valueOf("1/2"), Fraction.valueOf("2/4"));
+		assertSame(Fraction.valueOf("1 1/2"), Fraction.fromPackedLong(new Fraction(3, 2).toPackedLong()));
+		assertSame(Fraction.valueOf("3/4"), fromParcel(new Fraction(3, 4)));
+
+		// Outside of the table, each call returns a new instance
+		assertNotSame(Fraction.valueOf("17/19"), Fraction.valueOf("17/19"));
+		assertNotSame(Fraction.valueOf("-1/2"), Fraction.valueOf("-1/2"));
+		assertNotSame(fromParcel(new Fraction(100)), fromParcel(new Fraction(100)));
+		assertEquals(new Fraction(17, 19), Fraction.valueOf("17/19"));
+
+		// Modifying a MutableFraction obtained from a shared instance must
+		// never modify the shared instance.
+		final Fraction half = Fraction.valueOf("1/2");
+		final Fraction.MutableFraction mutable = half.mutate();
+		assertNotSame(half, mutable);
+
+		mutable.add(1).multiplyBy(3).subtract(new Fraction(1, 4));
+		assertEquals(new Fraction(17, 4), mutable);
+		assertEquals(new Fraction(1, 2), half);
+		assertSame(half, Fraction.valueOf("1/2"));
+		assertEquals(new Fraction(1, 2), Fraction.valueOf("1/2"));
+	}
+
+	public void testParseReturnsSharedInstances()
+	{
+		// Commonly used doses are shared instances, so parsing them repeatedly
+		// must not create new objects.
+		final String[] doses = { "0", "1/4", "1/2", "3/4", "1", "1 1/2", "2", "3" };
+
+		for(String s : doses)
+		{
+			final Fraction f = Fraction.valueOf(s);
+			for(int i = 0; i != 100; ++i)
+				assertSame(s, f, Fraction.valueOf(s));
+		}
+	}
+
 	//public void testToString() {
 	//    //fail("Not yet implemented");
 	//}
 
+	private static Fraction fromParcel(Fraction f)
+	{
+		final Parcel parcel = Parcel.obtain();
+
+		try
+		{
+			f.writeToParcel(parcel, 0);
+			parcel.setDataPosition(0);
+			return Fraction.CREATOR.createFromParcel(parcel);
+		}
+		finally
+		{
+			parcel.recycle();
+		}
+	}
+
 	private static <T> void assertEqualsAsString(T a, T b) {
 		assertEquals(a.toString(), b.toString());
 	}
@@ -0,0 +1,179 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package at.jclehner.rxdroid.test;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+import at.jclehner.rxdroid.db.Database;
+import at.jclehner.rxdroid.db.DoseEvent;
+import at.jclehner.rxdroid.db.DoseHistory;
+import at.jclehner.rxdroid.db.Drug;
+import at.jclehner.rxdroid.db.Entries;
+import at.jclehner.rxdroid.db.InMemoryBackend;
+import at.jclehner.rxdroid.db.Patient;
+import at.jclehner.rxdroid.db.Query;
+import at.jclehner.rxdroid.db.Schedule;
+import at.jclehner.rxdroid.util.DateTime;
+
+public class InMemoryBackendTest extends AndroidTestCase
+{
+	private static final int DAYS = 100;
+
+	private InMemoryBackend mBackend;
+	private Drug mDrug;
+	private Drug mOtherDrug;
+	private Date mToday;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		mBackend = new InMemoryBackend();
+		mToday = DateTime.today();
+
+		final Patient other = new Patient();
+		other.setId(2);
+		other.setName("Other");
+		mBackend.add(other);
+
+		mDrug = new Drug();
+		mDrug.setName("Drug A");
+		mBackend.add(mDrug);
+
+		final Drug drug = mOtherDrug = new Drug();
+		drug.setName("Drug B");
+		drug.setPatient(other);
+		mBackend.add(drug);
+
+		final Patient deleted = new Patient();
+		deleted.setId(3);
+		deleted.setName("Deleted");
+
+		final Drug orphan = new Drug();
+		orphan.setName("Drug C");
+		orphan.setPatient(deleted);
+		mBackend.add(orphan);
+
+		// Spans more than the history window, so that older events must be paged in
+		for(int i = 0; i != DAYS; ++i)
+		{
+			final Date date = DateTime.add(mToday, Calendar.DAY_OF_MONTH, -i);
+			mBackend.add(new DoseEvent(mDrug, date, Schedule.TIME_MORNING));
+			mBackend.add(new DoseEvent(drug, date, Schedule.TIME_EVENING));
+		}
+
+		Database.reload(mBackend);
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		Database.reload(getContext());
+		super.tearDown();
+	}
+
+	public void testDrugsByPatient()
+	{
+		assertEquals(1, Entries.getAllDrugs(Patient.DEFAULT_PATIENT_ID).size());
+		assertEquals(1, Entries.getAllDrugs(2).size());
+	}
+
+	public void testDefaultPatientIncludesOrphanedDrugs()
+	{
+		final List<Drug> drugs = Entries.getAllDrugs(0);
+
+		assertEquals(2, drugs.size());
+		assertTrue(drugs.get(0).compareTo(drugs.get(1)) <= 0);
+		assertEquals(1, Entries.getAllDrugs(3).size());
+	}
+
+	public void testQueryPagesInOlderEvents()
+	{
+		final List<DoseEvent> events = Database.query(DoseEvent.class, new Query()
+				.eq(Query.Field.DRUG_ID, mDrug.getId())
+				.range(Query.Field.DATE, DateTime.add(mToday, Calendar.DAY_OF_MONTH, -DAYS), null));
+
+		assertEquals(DAYS, events.size());
+	}
+
+	public void testDoseHistoryIsOnlyRebuiltForChangedDrug()
+	{
+		final int today = DateTime.toEpochDay(mToday);
+		final DoseHistory history = Database.getDoseHistory(mDrug.getId());
+
+		assertEquals(DAYS, history.size());
+		assertTrue(history.range().contains(today, Schedule.TIME_MORNING));
+		assertFalse(history.range().contains(today, Schedule.TIME_EVENING));
+		assertEquals(1, history.range(today, Integer.MAX_VALUE).size());
+		assertEquals(DAYS - 1, history.range(Integer.MIN_VALUE, today).size());
+
+		Database.create(new DoseEvent(mOtherDrug, mToday, Schedule.TIME_NOON));
+		assertSame(history, Database.getDoseHistory(mDrug.getId()));
+
+		Database.create(new DoseEvent(mDrug, mToday, Schedule.TIME_NOON));
+		assertEquals(DAYS + 1, Database.getDoseHistory(mDrug.getId()).size());
+	}
+
+	public void testWritesReachBackend() throws InterruptedException
+	{
+		final int count = mBackend.size(DoseEvent.class);
+		final DoseEvent event = new DoseEvent(mDrug, mToday, Schedule.TIME_NOON);
+
+		Database.create(event);
+		waitForPendingOperations();
+
+		assertEquals(count + 1, mBackend.size(DoseEvent.class));
+		assertTrue(event.getId() > 0);
+	}
+
+	public void testEventsOfUnsavedDrugAreFound() throws InterruptedException
+	{
+		final Drug drug = new Drug();
+		drug.setName("Drug D");
+
+		// The event is created before the drug has been assigned an ID
+		Database.create(drug);
+		Database.create(new DoseEvent(drug, mToday, Schedule.TIME_NOON));
+		waitForPendingOperations();
+
+		assertTrue(drug.getId() > 0);
+		assertEquals(1, Entries.countDoseEvents(drug, mToday, Schedule.TIME_NOON));
+
+		final List<DoseEvent> events = Database.query(DoseEvent.class, new Query()
+				.eq(Query.Field.DRUG_ID, drug.getId()));
+
+		assertEquals(1, events.size());
+	}
+
+	private static void waitForPendingOperations() throws InterruptedException
+	{
+		for(int i = 0; i != 100 && Database.hasPendingOperations(); ++i)
+			Thread.sleep(50);
+
+		assertFalse(Database.hasPendingOperations());
+	}
+}
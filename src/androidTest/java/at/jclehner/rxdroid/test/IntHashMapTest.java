@@ -0,0 +1,87 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+import at.jclehner.rxdroid.util.IntHashMap;
+
+public class IntHashMapTest extends AndroidTestCase
+{
+	public void testAgainstHashMap()
+	{
+		final IntHashMap<Integer> map = new IntHashMap<Integer>();
+		final HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		final Random random = new Random(42);
+
+		for(int i = 0; i != 100000; ++i)
+		{
+			final int key = random.nextInt(2000) - 100;
+
+			switch(random.nextInt(3))
+			{
+				case 0:
+					assertEquals(expected.put(key, i), map.put(key, i));
+					break;
+
+				case 1:
+					assertEquals(expected.remove(key), map.remove(key));
+					break;
+
+				default:
+					assertEquals(expected.get(key), map.get(key));
+			}
+
+			assertEquals(expected.size(), map.size());
+		}
+	}
+
+	public void testKeys()
+	{
+		final IntHashMap<String> map = new IntHashMap<String>();
+		map.put(3, "c");
+		map.put(-1, "a");
+		map.put(2, "b");
+		map.remove(2);
+
+		final int[] keys = map.keys();
+		Arrays.sort(keys);
+
+		assertTrue(Arrays.equals(new int[] { -1, 3 }, keys));
+	}
+
+	public void testNullValue()
+	{
+		try
+		{
+			new IntHashMap<Object>().put(1, null);
+			fail("null value was accepted");
+		}
+		catch(NullPointerException e)
+		{
+			// expected
+		}
+	}
+}
@@ -21,15 +21,22 @@
 
 package at.jclehner.androidutils;
 
-import java.lang.reflect.Method;
-import java.util.WeakHashMap;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
 
 import android.util.Log;
-import at.jclehner.rxdroid.util.Util;
-import at.jclehner.rxdroid.util.WrappedCheckedException;
 
 /**
  * Very simple event bus implementation.
+ * <p>
+ * Receivers are only weakly referenced, so registering an object does not
+ * keep it alive. Events are delivered using an {@link Invoker}, which
+ * calls the appropriate method of each receiver.
+ * <p>
+ * The list of receivers is copied whenever it is modified, so {@link #post(Invoker)}
+ * does not need a lock. A receiver may thus register or unregister receivers
+ * while handling an event; such changes take effect with the next event.
  *
  * @author Joseph Lehner
  *
@@ -40,47 +47,98 @@ public class EventDispatcher<T>
 	private static final String TAG = EventDispatcher.class.getSimpleName();
 	private static final boolean LOGV = false;
 
-	private final WeakHashMap<Object, Void> mReceivers =
-			new WeakHashMap<Object, Void>();
+	/**
+	 * Delivers an event to a single receiver.
+	 *
+	 * @param <T> the event handler type.
+	 */
+	public interface Invoker<T>
+	{
+		void invoke(T receiver);
+	}
+
+	// Never modified once assigned, only replaced (while holding this)
+	@SuppressWarnings("unchecked")
+	private volatile WeakReference<T>[] mReceivers = new WeakReference[0];
 
 	public EventDispatcher() {}
 
 	public synchronized void register(T eventHandler)
 	{
-		mReceivers.put(eventHandler, null);
-		//if(LOGV) Log.v(TAG, "register: " + eventHandler.getClass() + " (" + mReceivers.size() + ")");
+		final List<WeakReference<T>> receivers = getLiveReceivers(null);
+		for(WeakReference<T> ref : receivers)
+		{
+			if(ref.get() == eventHandler)
+				return;
+		}
+
+		receivers.add(new WeakReference<T>(eventHandler));
+		setReceivers(receivers);
+
+		if(LOGV) Log.v(TAG, "register: " + eventHandler.getClass() + " (" + receivers.size() + ")");
 	}
 
 	public synchronized void unregister(T eventHandler) {
-		mReceivers.remove(eventHandler);
+		setReceivers(getLiveReceivers(eventHandler));
 	}
 
-	public void post(String eventName, Object... args) {
-		post(eventName, Reflect.getTypes(args), args);
+	/**
+	 * Returns <code>true</code> if there are no live receivers.
+	 */
+	public boolean isEmpty()
+	{
+		for(WeakReference<T> ref : mReceivers)
+		{
+			if(ref.get() != null)
+				return false;
+		}
+
+		return true;
 	}
 
-	public synchronized void post(String eventName, Class<?>[] argTypes, Object... args)
+	public void post(Invoker<? super T> invoker)
 	{
-		if(LOGV) Log.v(TAG, "post: event=" + eventName + ": " + mReceivers.size() + " potential receivers");
+		final WeakReference<T>[] receivers = mReceivers;
+
+		if(LOGV) Log.v(TAG, "post: " + receivers.length + " potential receivers");
 
-		for(Object receiver : mReceivers.keySet())
+		for(WeakReference<T> ref : receivers)
 		{
-			final Method m = Reflect.getMethod(receiver.getClass(), eventName, argTypes);
-			if(m == null)
-			{
-				Log.w(TAG, "  no such method: " + receiver.getClass().getSimpleName() + "." + eventName + Util.arrayToString(argTypes));
+			final T receiver = ref.get();
+			if(receiver == null)
 				continue;
-			}
 
 			try
 			{
-				Reflect.invokeMethod(m, receiver, args);
-				if(LOGV) Log.v(TAG, "  found method " + m);
+				invoker.invoke(receiver);
 			}
-			catch(WrappedCheckedException e)
+			catch(RuntimeException e)
 			{
-				Log.w(TAG, "Failed to dispatch event " + receiver.getClass().getSimpleName() + "." + m.getName(), e);
+				Log.w(TAG, "Failed to dispatch event to " + receiver.getClass().getSimpleName(), e);
 			}
 		}
 	}
+
+	/**
+	 * Returns all receivers that are still alive, except <code>skip</code>.
+	 */
+	private List<WeakReference<T>> getLiveReceivers(T skip)
+	{
+		final WeakReference<T>[] receivers = mReceivers;
+		final List<WeakReference<T>> live = new ArrayList<WeakReference<T>>(receivers.length + 1);
+
+		for(WeakReference<T> ref : receivers)
+		{
+			final T receiver = ref.get();
+			if(receiver != null && receiver != skip)
+				live.add(ref);
+		}
+
+		return live;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void setReceivers(List<WeakReference<T>> receivers) {
+		mReceivers = receivers.toArray(new WeakReference[receivers.size()]);
+	}
 }
@@ -298,10 +298,16 @@ public class DoseDialog extends AlertDialog implements OnChangedListener, Databa
 				mDrug.getCurrentSupply().minus(mDose) : Fraction.ZERO;
 
 		mDrug.setCurrentSupply(newSupply.isNegative() ? Fraction.ZERO : newSupply);
-		Database.update(mDrug, Database.FLAG_DONT_NOTIFY_LISTENERS);
 
-		DoseEvent intake = new DoseEvent(mDrug, mDate, mDoseTime, mDose);
-		Database.create(intake);
+		Database.runInBatch(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				Database.update(mDrug, Database.FLAG_DONT_NOTIFY_LISTENERS);
+				Database.create(new DoseEvent(mDrug, mDate, mDoseTime, mDose));
+			}
+		});
 
 		dismiss();
 
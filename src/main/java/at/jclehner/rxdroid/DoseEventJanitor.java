@@ -19,12 +19,23 @@
  *
  */
 
+
 package at.jclehner.rxdroid;
 
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import at.jclehner.rxdroid.Settings.DoseTimeInfo;
 import at.jclehner.rxdroid.Settings.Keys;
@@ -34,9 +45,34 @@ import at.jclehner.rxdroid.db.Entries;
 import at.jclehner.rxdroid.db.DoseEvent;
 import at.jclehner.rxdroid.db.Patient;
 import at.jclehner.rxdroid.db.Schedule;
-import at.jclehner.rxdroid.util.Constants;
 import at.jclehner.rxdroid.util.DateTime;
 
+/**
+ * Creates auto-dose events and prunes the dose history.
+ * <p>
+ * To keep this off the critical path of cold starts and alarms, the maintenance
+ * performed after the DB was initialized runs on a background thread, in slices of
+ * at most {@link #MAINTENANCE_SLICE_MILLIS}, after an initial delay. The background
+ * thread only finds the days on which a drug is missing auto-dose events, which may
+ * require reading older events from the DB. The events themselves are then created
+ * on the main thread: this modifies the cached Drugs, which the UI modifies as well,
+ * so doing so on the same thread means that neither can lose the other's changes,
+ * and that the UI never sees a half-updated Drug.
+ * <p>
+ * Each day of auto-dose events of a drug is created using
+ * {@link Database#runInBatch(Runnable)}, together with the drug's supply and last
+ * auto-dose event creation date, so that the DB never contains half a day's worth
+ * of events. Since the latter date is where a drug's auto-dose event creation starts,
+ * interrupted maintenance resumes where it left off, even if the process was killed.
+ * Between slices, the next day to look at is kept for each drug, so that days on
+ * which no events were created are not looked at again.
+ * <p>
+ * Anything that creates dose events itself (i.e. {@link #onDoseTimeEnd(Date, int)})
+ * first finishes any pending maintenance of the affected drugs.
+ *
+ * @author Joseph Lehner
+ *
+ */
 public enum DoseEventJanitor implements
 		NotificationReceiver.OnDoseTimeChangeListener,
 		/*Database.OnChangeListener,*/
@@ -47,16 +83,70 @@ public enum DoseEventJanitor implements
 	private static final String TAG = DoseEventJanitor.class.getSimpleName();
 	private static final boolean LOGV = false;
 
+	private static final long MAINTENANCE_DELAY_MILLIS = 1000;
+	private static final long MAINTENANCE_SLICE_MILLIS = 25;
+
+	// Returned by createAutoDoseEvents() once a drug is done
+	private static final int DONE = Drug.NO_EPOCH_DAY;
+
+	private static final Object LOCK_MAINTENANCE = new Object();
+
+	// The next epoch-day to look at, by ID of the drugs whose auto-dose events have
+	// yet to be created; DONE if the drug's last auto-dose event creation date has
+	// yet to be looked at. Guarded by LOCK_MAINTENANCE, as is the field below.
+	private static final LinkedHashMap<Integer, Integer> sPendingDrugs = new LinkedHashMap<Integer, Integer>();
+	private static boolean sIsPruningPending = false;
+
+	// Only accessed on the main thread
+	private static final Set<Drug> sUpdatedDrugs = Collections.newSetFromMap(new IdentityHashMap<Drug, Boolean>());
+	private static boolean sHasCreatedDoseEvents = false;
+
+	private static Handler sHandler;
+
+	private static final Runnable MAINTENANCE_TASK = new Runnable() {
+
+		@Override
+		public void run()
+		{
+			final boolean isFinished;
+
+			synchronized(LOCK_MAINTENANCE)
+			{
+				isFinished = runMaintenance(SystemClock.elapsedRealtime() + MAINTENANCE_SLICE_MILLIS);
+			}
+
+			if(!isFinished)
+				getHandler().post(this);
+
+			// Any notification posted in the meantime was based on the
+			// missing auto-dose events, so update it once we're done.
+			postNotifyUpdated(isFinished);
+		}
+	};
+
 	@Override
 	public void onDoseTimeBegin(Date date, int doseTime) {
 		// do nothing
 	}
 
 	@Override
-	public void onDoseTimeEnd(Date date, int doseTime)
+	public void onDoseTimeEnd(final Date date, final int doseTime)
 	{
 		if(LOGV) Log.v(TAG, "onDoseTimeEnd");
-		createDoseEvents(date, doseTime);
+
+		getHandler().post(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				synchronized(LOCK_MAINTENANCE)
+				{
+					createDoseEvents(date, doseTime);
+				}
+
+				postNotifyUpdated(true);
+			}
+		});
 	}
 
 	@Override
@@ -67,42 +157,103 @@ public enum DoseEventJanitor implements
 		if(Database.countAll(Patient.class) == 0)
 			Database.create(new Patient(), Database.FLAG_DONT_NOTIFY_LISTENERS);
 
-		for(Drug drug : Database.getAll(Drug.class))
-			createAutoDoseEvents(drug);
+		synchronized(LOCK_MAINTENANCE)
+		{
+			sPendingDrugs.clear();
 
-		////////////////////////////////////
+			for(Drug drug : Database.getAll(Drug.class))
+			{
+				if(drug.hasAutoDoseEvents())
+					sPendingDrugs.put(drug.getId(), DONE);
+			}
 
-		final Date today = DateTime.today();
+			sIsPruningPending = true;
+		}
 
-		final List<DoseEvent> events = Database.getAll(DoseEvent.class);
-//		final ArrayList<Integer> idsToDelete = new ArrayList<Integer>();
-		final int oldIntakeCount = events.size();
-		int deleteCount = 0;
+		final Handler handler = getHandler();
+		handler.removeCallbacks(MAINTENANCE_TASK);
+		handler.postDelayed(MAINTENANCE_TASK, MAINTENANCE_DELAY_MILLIS);
+	}
 
-		Date oldest = null, newest = null;
+	public static void registerSelf()
+	{
+		//Database.registerEventListener(INSTANCE);
+		Database.registerOnInitializedListener(INSTANCE);
+		NotificationReceiver.registerOnDoseTimeChangeListener(INSTANCE);
+	}
 
-		for(DoseEvent intake : events)
+	/**
+	 * Returns <code>true</code> if the maintenance following the DB's initialization
+	 * has yet to finish.
+	 */
+	public static boolean hasPendingMaintenance()
+	{
+		synchronized(LOCK_MAINTENANCE)
 		{
-			final Date date = intake.getDate();
+			return !sPendingDrugs.isEmpty() || sIsPruningPending;
+		}
+	}
 
-			if(Settings.isPastMaxHistoryAge(today, date))
-			{
-				if(oldest == null || date.before(oldest))
-					oldest = date;
+	/**
+	 * Runs pending maintenance until it is done or the deadline has passed.
+	 * <p>
+	 * Must be called with <code>LOCK_MAINTENANCE</code> held.
+	 *
+	 * @param deadline a deadline, in terms of {@link SystemClock#elapsedRealtime()}.
+	 * @return <code>true</code> if all maintenance was done.
+	 */
+	private static boolean runMaintenance(long deadline)
+	{
+		final Iterator<Map.Entry<Integer, Integer>> i = sPendingDrugs.entrySet().iterator();
 
-				if(newest == null || date.after(newest))
-					newest = date;
+		while(i.hasNext())
+		{
+			final Map.Entry<Integer, Integer> pending = i.next();
+			final Drug drug = Drug.find(pending.getKey());
+			final int epochDay = drug != null ? createAutoDoseEvents(drug, pending.getValue(), deadline) : DONE;
 
-				++deleteCount;
-				Database.delete(intake, Database.FLAG_DONT_NOTIFY_LISTENERS);
+			if(epochDay == DONE)
+				i.remove();
+			else
+				pending.setValue(epochDay);
 
-				//intake.getDrug().setLastDosesClearedDate(date);
+			if(SystemClock.elapsedRealtime() >= deadline)
+				return sPendingDrugs.isEmpty() && !sIsPruningPending;
+		}
 
-//				idsToDelete.add(intake.getId());
-			}
+		if(sIsPruningPending)
+		{
+			pruneDoseEvents();
+			sIsPruningPending = false;
 		}
 
-//		Database.deleteByIds(intake.class, idsToDelete);
+		return true;
+	}
+
+	private static void pruneDoseEvents()
+	{
+		final Date today = DateTime.today();
+
+		final Date oldestPossible = Settings.getOldestPossibleHistoryDate(today);
+		if(oldestPossible == null)
+			return;
+
+		final int oldIntakeCount = Database.countAll(DoseEvent.class);
+		final List<DoseEvent> events = Database.deleteDoseEventsBefore(oldestPossible);
+		final int deleteCount = events.size();
+
+		Date oldest = null, newest = null;
+
+		for(DoseEvent intake : events)
+		{
+			final Date date = intake.getDate();
+
+			if(oldest == null || date.before(oldest))
+				oldest = date;
+
+			if(newest == null || date.after(newest))
+				newest = date;
+		}
 
 		final int deletedPercentage = (int) (deleteCount == 0 ? 0 : (deleteCount * 100.0) / oldIntakeCount);
 
@@ -122,67 +273,187 @@ public enum DoseEventJanitor implements
 		}
 	}
 
-	public static void registerSelf()
+	private static synchronized Handler getHandler()
 	{
-		//Database.registerEventListener(INSTANCE);
-		Database.registerOnInitializedListener(INSTANCE);
-		NotificationReceiver.registerOnDoseTimeChangeListener(INSTANCE);
+		if(sHandler == null)
+		{
+			final HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+			thread.start();
+			sHandler = new Handler(thread.getLooper());
+		}
+
+		return sHandler;
 	}
 
+	/**
+	 * Creates all drugs' dose events for the specified dose-time.
+	 * <p>
+	 * Must be called with <code>LOCK_MAINTENANCE</code> held.
+	 */
 	private static void createDoseEvents(Date date, int doseTime)
 	{
 		for(Drug drug : Database.getAll(Drug.class))
-			createDoseEvent(drug, date, doseTime);
+		{
+			// Creating this dose-time's event would advance the drug's last
+			// auto-dose event creation date beyond any pending ones.
+			final Integer epochDay = sPendingDrugs.remove(drug.getId());
+			if(epochDay != null)
+				createAutoDoseEvents(drug, epochDay, Long.MAX_VALUE);
+
+			postCreateDoseEvents(drug, date, doseTime, doseTime + 1);
+		}
 	}
 
-	private static void createAutoDoseEvents(Drug drug)
+	/**
+	 * Creates a drug's auto-dose events, one day at a time.
+	 *
+	 * @param epochDay the epoch-day to start at, or <code>DONE</code> to start at
+	 *     the drug's last auto-dose event creation date.
+	 * @return <code>DONE</code> if all events were created, or the epoch-day to
+	 *     resume at if the deadline has passed before that.
+	 */
+	private static int createAutoDoseEvents(Drug drug, int epochDay, long deadline)
 	{
 		if(!drug.hasAutoDoseEvents())
-			return;
+			return DONE;
 
-		Date date = drug.getLastAutoDoseEventCreationDate();
-		if(date == null)
+		// The creation date may have been changed since, e.g. by the UI
+		epochDay = Math.max(epochDay, drug.getLastAutoDoseEventCreationEpochDay());
+		if(epochDay == Drug.NO_EPOCH_DAY)
 			throw new IllegalStateException();
 
-		if(LOGV) Log.v(TAG, "createMissingIntakes: drug=" + drug + ", date=" + date);
+		if(LOGV) Log.v(TAG, "createMissingIntakes: drug=" + drug + ", epochDay=" + epochDay);
 
 		final DoseTimeInfo dtInfo = Settings.getDoseTimeInfo();
+		final int activeEpochDay = DateTime.toEpochDay(dtInfo.activeDate());
 
-		while(date.before(dtInfo.activeDate()))
+		for(; epochDay < activeEpochDay; ++epochDay)
 		{
-			for(int doseTime : Constants.DOSE_TIMES)
+			if(SystemClock.elapsedRealtime() >= deadline)
+				return epochDay;
+
+			postCreateDoseEvents(drug, DateTime.fromEpochDay(epochDay), Schedule.TIME_MORNING, Schedule.TIME_INVALID);
+		}
+
+		postCreateDoseEvents(drug, dtInfo.activeDate(), Schedule.TIME_MORNING, dtInfo.nextDoseTime());
+		return DONE;
+	}
+
+	/**
+	 * Has the main thread create a drug's missing dose events on the specified date.
+	 * <p>
+	 * Only the dose-times from <code>begin</code> (inclusive) to <code>end</code>
+	 * (exclusive) are considered. If none of these is missing its dose event,
+	 * nothing is posted.
+	 */
+	private static void postCreateDoseEvents(final Drug drug, final Date date, int begin, int end)
+	{
+		int missing = 0;
+
+		for(int doseTime = begin; doseTime != end; ++doseTime)
+		{
+			if(isMissingDoseEvent(drug, date, doseTime))
+				missing |= 1 << doseTime;
+		}
+
+		if(missing == 0)
+			return;
+
+		final int doseTimes = missing;
+
+		RxDroid.runInMainThread(new Runnable() {
+
+			@Override
+			public void run()
 			{
-				createDoseEvent(drug, date, doseTime);
+				final boolean[] hasCreatedDoseEvents = { false };
+
+				Database.runInBatch(new Runnable() {
+
+					@Override
+					public void run()
+					{
+						for(int doseTime : Schedule.DOSE_TIMES)
+						{
+							if((doseTimes & 1 << doseTime) != 0 && createDoseEvent(drug, date, doseTime))
+								hasCreatedDoseEvents[0] = true;
+						}
+					}
+				});
+
+				if(hasCreatedDoseEvents[0])
+				{
+					sHasCreatedDoseEvents = true;
+					sUpdatedDrugs.add(drug);
+				}
 			}
+		});
+	}
 
-			if(LOGV) Log.v(TAG, "  date=" + date);
-			date = DateTime.add(date, Calendar.DAY_OF_MONTH, 1);
-		}
+	/**
+	 * Has the main thread notify listeners of all drugs whose auto-dose events were
+	 * created, once all previously posted events have been created.
+	 *
+	 * @param updateNotification whether to also update the notification, provided
+	 *     that any events were created.
+	 */
+	private static void postNotifyUpdated(final boolean updateNotification)
+	{
+		RxDroid.runInMainThread(new Runnable() {
 
-		for(int doseTime = Schedule.TIME_MORNING; doseTime != dtInfo.nextDoseTime(); ++doseTime)
-			createDoseEvent(drug, dtInfo.activeDate(), doseTime);
+			@Override
+			public void run()
+			{
+				// The events were created without notifying listeners, but as
+				// maintenance is deferred, the UI might already be showing these
+				// drugs. The drugs themselves have already been written.
+				for(Drug drug : sUpdatedDrugs)
+					Database.notifyUpdated(drug);
+
+				sUpdatedDrugs.clear();
+
+				if(updateNotification && sHasCreatedDoseEvents)
+				{
+					sHasCreatedDoseEvents = false;
+					NotificationReceiver.rescheduleAlarmsAndUpdateNotification(true);
+				}
+			}
+		});
 	}
 
-	private static void createDoseEvent(Drug drug, Date date, int doseTime)
+	/**
+	 * Returns <code>true</code> if a dose event would be created.
+	 * <p>
+	 * As this may be called on any thread, {@link #createDoseEvent(Drug, Date, int)}
+	 * checks everything once more.
+	 */
+	private static boolean isMissingDoseEvent(Drug drug, Date date, int doseTime)
 	{
 		if(!drug.hasAutoDoseEvents())
-			return;
+			return false;
 
 		final Fraction dose = drug.getDose(doseTime, date);
 		if(dose.isZero())
-			return;
+			return false;
 
-		final Fraction newSupply = drug.getRefillSize() != 0 ?
-				drug.getCurrentSupply().minus(dose) : Fraction.ZERO;
+		if(drug.getRefillSize() != 0 && drug.getCurrentSupply().minus(dose).isNegative())
+			return false;
 
-		if(newSupply.isNegative())
-			return;
+		return Entries.countDoseEvents(drug, date, doseTime) == 0;
+	}
 
-		if(Entries.countDoseEvents(drug, date, doseTime) != 0)
-			return;
+	// Must be called on the main thread
+	private static boolean createDoseEvent(Drug drug, Date date, int doseTime)
+	{
+		if(!isMissingDoseEvent(drug, date, doseTime))
+			return false;
 
 		if(BuildConfig.DEBUG) Log.v(TAG, "createDoseEvent: drug=" + drug + ", date=" + date + ", doseTime=" + doseTime);
 
+		final Fraction dose = drug.getDose(doseTime, date);
+		final Fraction newSupply = drug.getRefillSize() != 0 ?
+				drug.getCurrentSupply().minus(dose) : Fraction.ZERO;
+
 		final DoseEvent intake = new DoseEvent(drug, date, doseTime, dose);
 		intake.setWasAutoCreated(true);
 
@@ -190,10 +461,10 @@ public enum DoseEventJanitor implements
 			drug.setLastAutoDoseEventCreationDate(date);
 		else
 		{
-			final Date lastAutoIntakeCreationDate = drug.getLastAutoDoseEventCreationDate();
-			if(lastAutoIntakeCreationDate == null)
+			final int lastAutoIntakeCreationEpochDay = drug.getLastAutoDoseEventCreationEpochDay();
+			if(lastAutoIntakeCreationEpochDay == Drug.NO_EPOCH_DAY)
 				drug.setLastAutoDoseEventCreationDate(DateTime.yesterday());
-			else if(DateTime.diffDays(date, lastAutoIntakeCreationDate) != 1)
+			else if(lastAutoIntakeCreationEpochDay - DateTime.toEpochDay(date) != 1)
 				drug.setLastAutoDoseEventCreationDate(DateTime.add(date, Calendar.DAY_OF_MONTH, -1));
 		}
 
@@ -201,6 +472,7 @@ public enum DoseEventJanitor implements
 
 		Database.create(intake, Database.FLAG_DONT_NOTIFY_LISTENERS);
 		Database.update(drug, Database.FLAG_DONT_NOTIFY_LISTENERS);
+
+		return true;
 	}
 }
-
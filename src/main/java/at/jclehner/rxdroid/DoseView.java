@@ -84,6 +84,9 @@ public class DoseView extends FrameLayout implements OnChangeListener
 	private Date mDate;
 	private int mIntakeCount = 0;
 
+	// The drug this view is currently listening to
+	private int mListenerDrugId = -1;
+
 	private MutableFraction mDisplayDose;
 
 	private int mStatus = STATUS_INDETERMINATE;
@@ -189,6 +192,7 @@ public class DoseView extends FrameLayout implements OnChangeListener
 
 		mDate = date;
 		mDrug = drug;
+		updateEventListener();
 
 		//mDose = getDose();
 
@@ -284,8 +288,7 @@ public class DoseView extends FrameLayout implements OnChangeListener
 	protected void onAttachedToWindow()
 	{
 		super.onAttachedToWindow();
-		if(mDrug != null)
-			Database.registerEventListener(this);
+		updateEventListener();
 	}
 
 	@Override
@@ -293,6 +296,24 @@ public class DoseView extends FrameLayout implements OnChangeListener
 	{
 		super.onDetachedFromWindow();
 		Database.unregisterEventListener(this);
+		mListenerDrugId = -1;
+	}
+
+	private void updateEventListener()
+	{
+		final int drugId = mDrug != null && ViewCompat.isAttachedToWindow(this) ? mDrug.getId() : -1;
+		if(drugId == mListenerDrugId)
+			return;
+
+		Database.unregisterEventListener(this);
+
+		if(drugId != -1)
+		{
+			Database.registerEventListener(this, Drug.class, drugId);
+			Database.registerEventListener(this, DoseEvent.class, drugId);
+		}
+
+		mListenerDrugId = drugId;
 	}
 
 	private boolean isApplicableDoseEvent(DoseEvent intake)
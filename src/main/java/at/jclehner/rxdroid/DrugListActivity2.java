@@ -82,6 +82,7 @@ import java.util.List;
 
 import at.jclehner.androidutils.LoaderListFragment;
 import at.jclehner.androidutils.RefString;
+import at.jclehner.rxdroid.db.ChangeLog;
 import at.jclehner.rxdroid.db.Database;
 import at.jclehner.rxdroid.db.DatabaseHelper;
 import at.jclehner.rxdroid.db.DoseEvent;
@@ -98,6 +99,7 @@ import at.jclehner.rxdroid.util.Components;
 import at.jclehner.rxdroid.util.Constants;
 import at.jclehner.rxdroid.util.DateTime;
 import at.jclehner.rxdroid.util.Extras;
+import at.jclehner.rxdroid.util.IntHashMap;
 import at.jclehner.rxdroid.util.Util;
 import at.jclehner.rxdroid.util.WrappedCheckedException;
 import at.jclehner.rxdroid.widget.DrugNameView;
@@ -520,7 +522,7 @@ public class DrugListActivity2 extends AppCompatActivity implements
 			super.onPause();
 
 			NotificationReceiver.unregisterOnDoseTimeChangeListener(this);
-			SystemEventReceiver.registerOnSystemTimeChangeListener(this);
+			SystemEventReceiver.unregisterOnSystemTimeChangeListener(this);
 		}
 
 		@Override
@@ -859,6 +861,20 @@ public class DrugListActivity2 extends AppCompatActivity implements
 
 			private static final boolean[] ALL_DIMMED = { true, true, true, true };
 
+			// Everything we need to know about a drug when loading
+			private static class Row
+			{
+				DrugWrapper wrapper;
+				boolean matches;
+				int score;
+			}
+
+			// The rows of the last load, by drug ID. Loads are never run concurrently,
+			// so no locking is required.
+			private final IntHashMap<Row> mRows = new IntHashMap<Row>();
+			// The sequence number of the last change reflected in mRows
+			private long mChangeSequence = -1;
+
 			private final boolean mShowAll;
 			private final int mPatientId;
 			private final Date mDate;
@@ -881,48 +897,99 @@ public class DrugListActivity2 extends AppCompatActivity implements
 			{
 				Database.init();
 
+				// Only rows of drugs that were affected by a change since the last load
+				// have to be recreated. Any changes made while loading will be seen by
+				// the next load.
+				final long changeSequence = Database.getChangeSequence();
+				discardChangedRows();
+				mChangeSequence = changeSequence;
+
 				final List<Drug> allDrugs = Entries.getAllDrugs(mPatientId);
-				final List<Drug> drugs = mShowAll ? allDrugs :
-						(List<Drug>) CollectionUtils.filter(allDrugs, mFilter);
+				final List<Row> rows = new ArrayList<Row>(allDrugs.size());
+
+				for(Drug drug : allDrugs)
+				{
+					Row row = mRows.get(drug.getId());
+					if(row == null || row.wrapper.item != drug)
+					{
+						row = createRow(drug);
+						mRows.put(drug.getId(), row);
+					}
+
+					if(mShowAll || row.matches)
+						rows.add(row);
+				}
+
+				Collections.sort(rows, mComparator);
+				final ArrayList<DrugWrapper> data = new ArrayList<DrugWrapper>(rows.size());
+
+				for(Row row : rows)
+					data.add(row.wrapper);
+
+				return data;
+			}
+
+			private void discardChangedRows()
+			{
+				final List<ChangeLog.Change> changes = mChangeSequence != -1 ?
+						Database.getChangesSince(mChangeSequence) : null;
+
+				if(changes == null)
+				{
+					mRows.clear();
+					return;
+				}
 
-				Collections.sort(drugs, mComparator);
-				final ArrayList<DrugWrapper> data = new ArrayList<DrugWrapper>(drugs.size());
+				for(ChangeLog.Change change : changes)
+				{
+					final int drugId = change.getDrugId();
+					if(drugId == -1)
+					{
+						// Could be a patient, a new drug, etc.
+						mRows.clear();
+						return;
+					}
+
+					mRows.remove(drugId);
+				}
+			}
 
+			private Row createRow(Drug drug)
+			{
 				final int nextDoseTime = mDtInfo.nextDoseTime();
-				final int activeDoseTime = mDtInfo.activeDoseTime();
 
-				for(Drug drug : drugs)
+				final DrugWrapper wrapper = new DrugWrapper(drug);
+				wrapper.date = mDate;
+				wrapper.isRelevantDate = mDate.equals(mDtInfo.displayDate());
+				wrapper.isSupplyLow = Entries.hasLowSupplies(drug, mDate);
+				wrapper.hasMissingDoses = Entries.hasMissingDosesBeforeDate(drug, mDate);
+				wrapper.isSupplyVisible = drug.getRefillSize() != 0 && !mDate.before(mDtInfo.displayDate());
+
+				if(wrapper.isRelevantDate && drug.isActive())
 				{
-					final DrugWrapper wrapper = new DrugWrapper(drug);
-					wrapper.date = mDate;
-					wrapper.isRelevantDate = mDate.equals(mDtInfo.displayDate());
-					wrapper.isSupplyLow = Entries.hasLowSupplies(drug, mDate);
-					wrapper.hasMissingDoses = Entries.hasMissingDosesBeforeDate(drug, mDate);
-					wrapper.isSupplyVisible = drug.getRefillSize() != 0 && !mDate.before(mDtInfo.displayDate());
-
-					if(wrapper.isRelevantDate && drug.isActive())
+					for(int i = 0; i != wrapper.doseViewDimmed.length; ++i)
 					{
-						for(int i = 0; i != wrapper.doseViewDimmed.length; ++i)
+						final int doseTime = Schedule.TIME_MORNING + i;
+						if(doseTime < nextDoseTime || nextDoseTime == Schedule.TIME_MORNING)
 						{
-							final int doseTime = Schedule.TIME_MORNING + i;
-							if(doseTime < nextDoseTime || nextDoseTime == Schedule.TIME_MORNING)
-							{
-								if(!drug.getDose(doseTime, mDate).isZero())
-									wrapper.doseViewDimmed[i] = Entries.countDoseEvents(drug, mDate, doseTime) != 0;
-								else
-									wrapper.doseViewDimmed[i] = true;
-							}
+							if(!drug.getDose(doseTime, mDate).isZero())
+								wrapper.doseViewDimmed[i] = Entries.countDoseEvents(drug, mDate, doseTime) != 0;
 							else
 								wrapper.doseViewDimmed[i] = true;
 						}
+						else
+							wrapper.doseViewDimmed[i] = true;
 					}
-					else
-						wrapper.doseViewDimmed = ALL_DIMMED;
-
-					data.add(wrapper);
 				}
+				else
+					wrapper.doseViewDimmed = ALL_DIMMED;
 
-				return data;
+				final Row row = new Row();
+				row.wrapper = wrapper;
+				row.matches = mFilter.matches(drug);
+				row.score = getSmartSortScore(drug);
+
+				return row;
 			}
 
 			private final CollectionUtils.Filter<Drug> mFilter = new CollectionUtils.Filter<Drug>()
@@ -955,13 +1022,13 @@ public class DrugListActivity2 extends AppCompatActivity implements
 				}
 			};
 
-			private final Comparator<Drug> mComparator = new Comparator<Drug>() {
+			private final Comparator<Row> mComparator = new Comparator<Row>() {
 
 				@Override
-				public int compare(Drug lhs, Drug rhs)
+				public int compare(Row lhs, Row rhs)
 				{
-					int l = getSmartSortScore(lhs);
-					int r = getSmartSortScore(rhs);
+					int l = lhs.score;
+					int r = rhs.score;
 
 					if (l != r) {
 						return l < r ? -1 : 1;
@@ -969,39 +1036,39 @@ public class DrugListActivity2 extends AppCompatActivity implements
 
 					return 0;
 				}
+			};
 
-				// lower score is better (higher up)
-				private int getSmartSortScore(Drug drug)
-				{
-					if(!drug.isActive())
-						return 100000 - drug.getId();
+			// lower score is better (higher up)
+			private int getSmartSortScore(Drug drug)
+			{
+				if(!drug.isActive())
+					return 100000 - drug.getId();
 
-					int score = drug.hasAutoDoseEvents() ? 50000 : 0;
+				int score = drug.hasAutoDoseEvents() ? 50000 : 0;
 
-					if(!Entries.hasAllDoseEvents(drug, mDate, mDtInfo.activeOrNextDoseTime(), false))
-						score -= 5000;
+				if(!Entries.hasAllDoseEvents(drug, mDate, mDtInfo.activeOrNextDoseTime(), false))
+					score -= 5000;
 
-					if(!drug.getDose(mDtInfo.activeOrNextDoseTime(), mDate).isZero())
-					{
-						if(Entries.countDoseEvents(drug, mDate, mDtInfo.activeOrNextDoseTime()) == 0)
-							score -= 3000;
-					}
+				if(!drug.getDose(mDtInfo.activeOrNextDoseTime(), mDate).isZero())
+				{
+					if(Entries.countDoseEvents(drug, mDate, mDtInfo.activeOrNextDoseTime()) == 0)
+						score -= 3000;
+				}
 
-					if(Entries.hasLowSupplies(drug, mDate))
-						score -= 1000;
+				if(Entries.hasLowSupplies(drug, mDate))
+					score -= 1000;
 
-					if(mDtInfo.displayDate().equals(mDate))
-					{
-						if(Entries.hasMissingDosesBeforeDate(drug, mDate))
-							score -= 1000;
-					}
+				if(mDtInfo.displayDate().equals(mDate))
+				{
+					if(Entries.hasMissingDosesBeforeDate(drug, mDate))
+						score -= 1000;
+				}
 
-					if(drug.hasDoseOnDate(mDate))
-						score -= 2500;
+				if(drug.hasDoseOnDate(mDate))
+					score -= 2500;
 
-					return score;
-				}
-			};
+				return score;
+			}
 		}
 
 		public static String ARG_DATE = "date";
@@ -1246,8 +1313,14 @@ public class DrugListActivity2 extends AppCompatActivity implements
 			return new Loader(getActivity(), getArguments());
 		}
 
-		private void reloadLoader() {
-			getLoaderManager().restartLoader(0, null, this);
+		private void reloadLoader()
+		{
+			// Reuse the loader if possible, as it only reloads what has changed
+			final androidx.loader.content.Loader<?> loader = getLoaderManager().getLoader(0);
+			if(loader != null)
+				loader.onContentChanged();
+			else
+				getLoaderManager().restartLoader(0, null, this);
 		}
 
 		@Override
@@ -21,8 +21,6 @@
 
 package at.jclehner.rxdroid;
 
-import java.util.Arrays;
-
 import android.os.Parcel;
 import android.os.Parcelable;
 
@@ -51,7 +49,7 @@ public class Fraction extends Number implements Comparable<Number>, Parcelable
 		 * @return a reference to this instance
 		 */
 		public MutableFraction add(Fraction other) {
-			return Fraction.add(this, other);
+			return assign(FractionMath.add(toPackedLong(), other.toPackedLong()));
 		}
 
 		/**
@@ -59,7 +57,7 @@ public class Fraction extends Number implements Comparable<Number>, Parcelable
 		 * @return a reference to this object
 		 */
 		public MutableFraction add(int n) {
-			return Fraction.add(this, n);
+			return assign(FractionMath.add(toPackedLong(), n));
 		}
 
 		/**
@@ -67,7 +65,7 @@ public class Fraction extends Number implements Comparable<Number>, Parcelable
 		 * @return a reference to this instance
 		 */
 		public MutableFraction subtract(Fraction other) {
-			return Fraction.add(this, other.negate());
+			return assign(FractionMath.subtract(toPackedLong(), other.toPackedLong()));
 		}
 
 		/**
@@ -75,23 +73,30 @@ public class Fraction extends Number implements Comparable<Number>, Parcelable
 		 * @return a reference to this instance
 		 */
 		public MutableFraction subtract(int n) {
-			return Fraction.add(this, -n);
+			return assign(FractionMath.subtract(toPackedLong(), n));
 		}
 
 		public MutableFraction multiplyBy(Fraction other) {
-			return Fraction.multiplyBy(this, other);
+			return assign(FractionMath.multiply(toPackedLong(), other.toPackedLong()));
 		}
 
 		public MutableFraction multiplyBy(int n) {
-			return Fraction.multiplyBy(this, n);
+			return assign(FractionMath.multiply(toPackedLong(), n));
 		}
 
 		public MutableFraction divideBy(Fraction other) {
-			return Fraction.divideBy(this, other);
+			return assign(FractionMath.divide(toPackedLong(), other.toPackedLong()));
 		}
 
 		public MutableFraction divideBy(int n) {
-			return Fraction.divideBy(this, n);
+			return assign(FractionMath.divide(toPackedLong(), n));
+		}
+
+		private MutableFraction assign(long packed)
+		{
+			mNumerator = FractionMath.numerator(packed);
+			mDenominator = FractionMath.denominator(packed);
+			return this;
 		}
 	}
 
@@ -110,6 +115,27 @@ public class Fraction extends Number implements Comparable<Number>, Parcelable
 	 */
 	public static final Fraction ZERO = new Fraction();
 
+	// Bounds of the fractions returned as shared instances by intern()
+	private static final int INTERN_MAX_NUMERATOR = 32;
+	private static final int INTERN_MAX_DENOMINATOR = 8;
+
+	private static final Fraction[] INTERNED =
+			new Fraction[(INTERN_MAX_NUMERATOR + 1) * INTERN_MAX_DENOMINATOR];
+
+	static
+	{
+		INTERNED[internIndex(0, 1)] = ZERO;
+
+		for(int n = 1; n <= INTERN_MAX_NUMERATOR; ++n)
+		{
+			for(int d = 1; d <= INTERN_MAX_DENOMINATOR; ++d)
+			{
+				if(FractionMath.gcd(n, d) == 1)
+					INTERNED[internIndex(n, d)] = new Fraction(n, d);
+			}
+		}
+	}
+
 	/**
 	 * Default constructor.
 	 * <p>
@@ -173,40 +199,36 @@ public class Fraction extends Number implements Comparable<Number>, Parcelable
 		return new MutableFraction(this);
 	}
 
-	public Fraction plus(final Fraction other)
-	{
-		Fraction result = new Fraction(this);
-		return add(result, other);
+	public Fraction plus(final Fraction other) {
+		return fromPackedLong(FractionMath.add(toPackedLong(), other.toPackedLong()));
 	}
 
-	public Fraction plus(int n)
-	{
-		Fraction result = new Fraction(this);
-		return add(result, n);
+	public Fraction plus(int n) {
+		return fromPackedLong(FractionMath.add(toPackedLong(), n));
 	}
 
 	public Fraction minus(final Fraction other) {
-		return plus(other.negate());
+		return fromPackedLong(FractionMath.subtract(toPackedLong(), other.toPackedLong()));
 	}
 
 	public Fraction minus(int n) {
-		return plus(-n);
+		return fromPackedLong(FractionMath.subtract(toPackedLong(), n));
 	}
 
 	public Fraction times(Fraction other) {
-		return multiplyBy(new Fraction(this), other);
+		return fromPackedLong(FractionMath.multiply(toPackedLong(), other.toPackedLong()));
 	}
 
 	public Fraction times(int n) {
-		return multiplyBy(new Fraction(this), n);
+		return fromPackedLong(FractionMath.multiply(toPackedLong(), n));
 	}
 
 	public Fraction dividedBy(Fraction other) {
-		return divideBy(new Fraction(this), other);
+		return fromPackedLong(FractionMath.divide(toPackedLong(), other.toPackedLong()));
 	}
 
 	public Fraction dividedBy(int n) {
-		return divideBy(new Fraction(this), n);
+		return fromPackedLong(FractionMath.divide(toPackedLong(), n));
 	}
 
 	/**
@@ -285,17 +307,7 @@ public class Fraction extends Number implements Comparable<Number>, Parcelable
 			return 0;
 
 		if(other instanceof Fraction)
-		{
-			Fraction otherFraction = (Fraction) other;
-
-			int a = this.mNumerator * otherFraction.mDenominator;
-			int b = otherFraction.mNumerator * this.mDenominator;
-
-			if(a == b)
-				return 0;
-
-			return a < b ? -1 : 1;
-		}
+			return FractionMath.compare(toPackedLong(), ((Fraction) other).toPackedLong());
 		else
 			return Double.compare(this.doubleValue(), other.doubleValue());
 	}
@@ -371,182 +383,249 @@ public class Fraction extends Number implements Comparable<Number>, Parcelable
 	 * Parses the textual representation of a fraction.
 	 * <p>
 	 * This function will accept strings like {@literal -3 1/4} or {@literal 5/4}.
-	 * Superfluous whitespace will be trimmed.
+	 * Superfluous whitespace will be trimmed. A whole number followed by another
+	 * number without a fraction bar (e.g. {@literal 1 2}) is rejected.
+	 * <p>
+	 * Commonly used values are returned as shared instances (see {@link #intern(int, int)}).
 	 *
 	 * @throws NumberFormatException
 	 */
 	public static Fraction valueOf(final String string)
 	{
-		final String[] tokens = string.trim().split("\\s*/\\s*|\\s+");
+		// The string is parsed in a single pass, collecting up to three integers. A bit
+		// in slashes is set if the corresponding integer was preceded by a slash.
+		final int length = string.length();
 		int wholeNum = 0, numerator = 0, denominator = 1;
+		int count = 0, slashes = 0;
+		boolean isSlashPending = false;
 
-		switch(tokens.length)
+		for(int i = 0; i != length;)
 		{
-			case 2:
-				numerator = Integer.parseInt(tokens[0]);
-				denominator = Integer.parseInt(tokens[1]);
-				break;
+			final char c = string.charAt(i);
 
-			case 3:
-				numerator = Integer.parseInt(tokens[1]);
-				denominator = Integer.parseInt(tokens[2]);
-				// fall through
+			if(c == '/')
+			{
+				if(isSlashPending || count == 0)
+					throw new NumberFormatException(string);
 
-			case 1:
-				wholeNum = Integer.parseInt(tokens[0]);
-				break;
+				isSlashPending = true;
+				++i;
+			}
+			else if(Character.isWhitespace(c))
+				++i;
+			else
+			{
+				final int start = i;
+				while(i != length && !isSeparator(string.charAt(i)))
+					++i;
 
-			default:
-				throw new NumberFormatException(string + " -> " + Arrays.toString(tokens));
-		}
+				final int value = parseInt(string, start, i);
 
-		return new Fraction(wholeNum, numerator, denominator);
-	}
+				switch(count)
+				{
+					case 0:
+						wholeNum = value;
+						break;
 
-	public static Fraction nullAsZero(Fraction f) {
-		return f == null ? Fraction.ZERO : f;
-	}
+					case 1:
+						numerator = value;
+						break;
 
+					case 2:
+						denominator = value;
+						break;
 
-	public static void setDisplayMixedNumbers(boolean displayMixedNumbers) {
-		sDisplayMixedNumbers = displayMixedNumbers;
-	}
+					default:
+						throw new NumberFormatException(string);
+				}
 
-	public static final Parcelable.Creator<Fraction> CREATOR = new Parcelable.Creator<Fraction>() {
+				if(isSlashPending)
+					slashes |= 1 << count;
 
-		@Override
-		public Fraction createFromParcel(Parcel in)
-		{
-			return new Fraction(in.readInt(), in.readInt());
+				isSlashPending = false;
+				++count;
+			}
 		}
 
-		@Override
-		public Fraction[] newArray(int size)
+		if(isSlashPending)
+			throw new NumberFormatException(string);
+
+		switch(count)
 		{
-			return new Fraction[size];
+			case 1:
+				break;
+
+			case 2:
+				// n/d
+				if(slashes != 2)
+					throw new NumberFormatException(string);
+
+				denominator = numerator;
+				numerator = wholeNum;
+				wholeNum = 0;
+				break;
+
+			case 3:
+				// w n/d
+				if(slashes != 4)
+					throw new NumberFormatException(string);
+
+				break;
+
+			default:
+				throw new NumberFormatException(string);
 		}
-	};
 
-	protected void init(int integer, int numerator, int denominator)
-	{
 		if(denominator == 0)
 			throw new ArithmeticException("Division by zero");
-		else if(denominator < 0)
-			throw new NumberFormatException("Denominator must be greater than zero");
 
-		if(integer != 0 && numerator < 0)
-			throw new NumberFormatException("Numerator must not be negative if integer is non-zero");
+		checkArgs(wholeNum, numerator, denominator);
 
-		// set mNumerator, even though we divide it by the GCD later, so as to pass the
-		// original argument of this function to findGCD
-		if(integer >= 0)
-			mNumerator = integer * denominator + numerator;
-		else
-			mNumerator = integer * denominator - numerator;
+		final long n = wholeNum >= 0 ? (long) wholeNum * denominator + numerator : (long) wholeNum * denominator - numerator;
+		return fromPackedLong(FractionMath.reduce(n, denominator));
+	}
 
-		// the sign, if present, has been moved to the numerator by now
-		mDenominator = Math.abs(denominator);
+	/**
+	 * Returns a fraction with the specified value.
+	 * <p>
+	 * Small non-negative fractions, which make up almost all doses, are shared
+	 * instances, so callers must not rely on the result being a new object. This
+	 * is safe as only {@link MutableFraction}s, which are never shared, can be modified.
+	 */
+	private static Fraction intern(int numerator, int denominator)
+	{
+		if(numerator >= 0 && numerator <= INTERN_MAX_NUMERATOR && denominator > 0 && denominator <= INTERN_MAX_DENOMINATOR)
+		{
+			// Only reduced fractions are stored; anything else falls through
+			// to the constructor, which reduces it.
+			final Fraction f = INTERNED[internIndex(numerator, denominator)];
+			if(f != null)
+				return f;
+		}
 
-		final int divisor = findGCD(Math.abs(numerator), denominator);
+		return new Fraction(numerator, denominator);
+	}
 
-		mNumerator /= divisor;
-		mDenominator /= divisor;
+	private static int internIndex(int numerator, int denominator) {
+		return numerator * INTERN_MAX_DENOMINATOR + denominator - 1;
 	}
 
-	private static <F extends Fraction> F add(F dest, Fraction other)
-	{
-		if(other.mDenominator == 1)
-			return add(dest, other.mNumerator);
+	private static boolean isSeparator(char c) {
+		return c == '/' || Character.isWhitespace(c);
+	}
 
-		int numerator, denominator;
+	/**
+	 * Parses a decimal integer in the specified range of a string.
+	 * <p>
+	 * Equivalent to calling {@link Integer#parseInt(String)} on a substring, but
+	 * does not create one.
+	 */
+	private static int parseInt(String string, int start, int end)
+	{
+		boolean isNegative = false;
+		int i = start;
 
-		if(dest.mDenominator != other.mDenominator)
+		final char sign = string.charAt(i);
+		if(sign == '-' || sign == '+')
 		{
-			int lcm = findLCM(dest.mDenominator, other.mDenominator);
+			isNegative = sign == '-';
+			++i;
+		}
 
-			int multThis = lcm / dest.mDenominator;
-			int multOther = lcm / other.mDenominator;
+		if(i == end)
+			throw new NumberFormatException(string);
 
-			denominator = lcm;
-			numerator = dest.mNumerator * multThis + other.mNumerator * multOther;
-		}
-		else
+		// Accumulate negatively, as Integer.MIN_VALUE has no positive counterpart
+		final long limit = isNegative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+		long result = 0;
+
+		for(; i != end; ++i)
 		{
-			numerator = dest.mNumerator + other.mNumerator;
-			denominator = dest.mDenominator;
-		}
+			final int digit = Character.digit(string.charAt(i), 10);
+			if(digit == -1)
+				throw new NumberFormatException(string);
 
-		// this reduces the resulting fraction
-		dest.init(0, numerator, denominator);
+			result = result * 10 - digit;
+			if(result < limit)
+				throw new NumberFormatException(string);
+		}
 
-		return dest;
+		return (int) (isNegative ? result : -result);
 	}
 
-	private static <F extends Fraction> F add(F dest, int n)
+	/**
+	 * Packs this fraction into a <code>long</code>.
+	 * <p>
+	 * The numerator is stored in the upper, the denominator in the lower
+	 * 32 bits. Zero is always packed as <code>0</code>.
+	 *
+	 * @see #fromPackedLong(long)
+	 */
+	public long toPackedLong()
 	{
-		dest.mNumerator += n * dest.mDenominator;
-		return dest;
+		if(mNumerator == 0)
+			return 0;
+
+		return ((long) mNumerator << 32) | (mDenominator & 0xffffffffL);
 	}
 
-	private static <F extends Fraction> F multiplyBy(F dest, Fraction other)
+	/**
+	 * Unpacks a fraction packed using {@link #toPackedLong()}.
+	 */
+	public static Fraction fromPackedLong(long packed)
 	{
-		final int numerator = dest.mNumerator * other.mNumerator;
-		final int denominator = dest.mDenominator * dest.mNumerator;
+		if(packed == 0)
+			return ZERO;
 
-		dest.init(0, numerator, denominator);
-		return dest;
+		return intern(FractionMath.numerator(packed), FractionMath.denominator(packed));
 	}
 
-	private static <F extends Fraction> F multiplyBy(F dest, int n)
-	{
-		dest.init(0, dest.mNumerator * n, dest.mDenominator);
-		return dest;
+	public static Fraction nullAsZero(Fraction f) {
+		return f == null ? Fraction.ZERO : f;
 	}
 
-	private static <F extends Fraction> F divideBy(F dest, Fraction other)
-	{
-		final int numerator = dest.mNumerator * other.mDenominator;
-		final int denominator = dest.mDenominator * other.mNumerator;
 
-		dest.init(0, numerator, denominator);
-		return dest;
+	public static void setDisplayMixedNumbers(boolean displayMixedNumbers) {
+		sDisplayMixedNumbers = displayMixedNumbers;
 	}
 
-	private static <F extends Fraction> F divideBy(F dest, int n)
-	{
-		dest.init(0, dest.mNumerator, dest.mDenominator * n);
-		return dest;
-	}
+	public static final Parcelable.Creator<Fraction> CREATOR = new Parcelable.Creator<Fraction>() {
 
-	/**
-	 * Finds the lowest common multiple of two integers.
-	 */
-	private static int findLCM(int n1, int n2)
-	{
-		int product = n1 * n2;
+		@Override
+		public Fraction createFromParcel(Parcel in)
+		{
+			final int numerator = in.readInt();
+			return intern(numerator, in.readInt());
+		}
 
-		do
+		@Override
+		public Fraction[] newArray(int size)
 		{
-			if(n1 < n2)
-			{
-				int tmp = n1;
-				n1 = n2;
-				n2 = tmp;
-			}
-			n1 = n1 % n2;
-		} while(n1 != 0);
+			return new Fraction[size];
+		}
+	};
+
+	protected void init(int integer, int numerator, int denominator)
+	{
+		if(denominator == 0)
+			throw new ArithmeticException("Division by zero");
 
-		return product / n2;
+		checkArgs(integer, numerator, denominator);
+
+		final long n = integer >= 0 ? (long) integer * denominator + numerator : (long) integer * denominator - numerator;
+		final long packed = FractionMath.reduce(n, denominator);
+
+		mNumerator = FractionMath.numerator(packed);
+		mDenominator = FractionMath.denominator(packed);
 	}
 
-	/**
-	 * Finds the greatest common divisor of two integers.
-	 */
-	private static int findGCD(int n1, int n2)
+	private static void checkArgs(int integer, int numerator, int denominator)
 	{
-		if(n2 == 0)
-			return n1;
-		return findGCD(n2, n1 % n2);
+		if(denominator < 0)
+			throw new NumberFormatException("Denominator must be greater than zero");
+
+		if(integer != 0 && numerator < 0)
+			throw new NumberFormatException("Numerator must not be negative if integer is non-zero");
 	}
 
 //	private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
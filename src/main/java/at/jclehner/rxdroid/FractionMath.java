@@ -0,0 +1,234 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid;
+
+/**
+ * Arithmetic on fractions packed into a <code>long</code>.
+ * <p>
+ * Fractions are packed as by {@link Fraction#toPackedLong()}: the numerator
+ * is stored in the upper, the denominator in the lower 32 bits, and zero is
+ * always <code>0</code>. All functions return reduced fractions, so packed
+ * values may be compared using <code>==</code>.
+ * <p>
+ * Intermediate results are calculated using 64-bit math, which cannot overflow
+ * given 32-bit operands. If a result does not fit into a packed fraction, an
+ * {@link ArithmeticException} is thrown.
+ * <p>
+ * None of these functions allocate any objects, so they may be used in loops
+ * where creating a new {@link Fraction} for every step would be wasteful.
+ *
+ * @author Joseph Lehner
+ *
+ */
+public final class FractionMath
+{
+	public static final long ZERO = 0;
+	public static final long ONE = pack(1, 1);
+
+	/**
+	 * Packs a fraction, reducing it if necessary.
+	 *
+	 * @throws ArithmeticException if {@code denominator == 0}
+	 */
+	public static long pack(int numerator, int denominator)
+	{
+		if(denominator == 0)
+			throw new ArithmeticException("Division by zero");
+		else if(denominator < 0)
+			return reduce(-(long) numerator, -(long) denominator);
+
+		return reduce(numerator, denominator);
+	}
+
+	public static int numerator(long f) {
+		return (int) (f >> 32);
+	}
+
+	public static int denominator(long f) {
+		return f != 0 ? (int) f : 1;
+	}
+
+	public static boolean isNegative(long f) {
+		return f < 0;
+	}
+
+	public static long negate(long f) {
+		return reduce(-(long) numerator(f), denominator(f));
+	}
+
+	public static long add(long a, long b)
+	{
+		if(a == 0)
+			return b;
+		else if(b == 0)
+			return a;
+
+		final long da = denominator(a);
+		final long db = denominator(b);
+
+		if(da == db)
+			return reduce((long) numerator(a) + numerator(b), da);
+
+		return reduce(numerator(a) * db + numerator(b) * da, da * db);
+	}
+
+	public static long add(long a, int n)
+	{
+		final long d = denominator(a);
+		return reduce(numerator(a) + n * d, d);
+	}
+
+	public static long subtract(long a, long b)
+	{
+		if(b == 0)
+			return a;
+
+		final long da = denominator(a);
+		final long db = denominator(b);
+
+		if(da == db)
+			return reduce((long) numerator(a) - numerator(b), da);
+
+		return reduce(numerator(a) * db - numerator(b) * da, da * db);
+	}
+
+	public static long subtract(long a, int n)
+	{
+		final long d = denominator(a);
+		return reduce(numerator(a) - n * d, d);
+	}
+
+	public static long multiply(long a, long b)
+	{
+		if(a == 0 || b == 0)
+			return 0;
+
+		return reduce((long) numerator(a) * numerator(b), (long) denominator(a) * denominator(b));
+	}
+
+	public static long multiply(long a, int n) {
+		return reduce((long) numerator(a) * n, denominator(a));
+	}
+
+	/**
+	 * @throws ArithmeticException if {@code b} is zero.
+	 */
+	public static long divide(long a, long b)
+	{
+		final long nb = numerator(b);
+		if(nb == 0)
+			throw new ArithmeticException("Division by zero");
+
+		final long numerator = numerator(a) * (long) denominator(b);
+		final long denominator = denominator(a) * nb;
+
+		return denominator > 0 ? reduce(numerator, denominator) : reduce(-numerator, -denominator);
+	}
+
+	/**
+	 * @throws ArithmeticException if {@code n} is zero.
+	 */
+	public static long divide(long a, int n)
+	{
+		if(n == 0)
+			throw new ArithmeticException("Division by zero");
+
+		final long denominator = (long) denominator(a) * n;
+		return n > 0 ? reduce(numerator(a), denominator) : reduce(-(long) numerator(a), -denominator);
+	}
+
+	public static int compare(long a, long b)
+	{
+		if(a == b)
+			return 0;
+
+		final long lhs = (long) numerator(a) * denominator(b);
+		final long rhs = (long) numerator(b) * denominator(a);
+
+		return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+	}
+
+	public static double doubleValue(long f) {
+		return (double) numerator(f) / denominator(f);
+	}
+
+	/**
+	 * Finds the greatest common divisor of two non-negative integers.
+	 * <p>
+	 * Uses the binary GCD algorithm, which replaces divisions by shifts
+	 * and subtractions.
+	 */
+	public static long gcd(long a, long b)
+	{
+		if(a == 0)
+			return b;
+		else if(b == 0)
+			return a;
+
+		final int shift = Long.numberOfTrailingZeros(a | b);
+		a >>= Long.numberOfTrailingZeros(a);
+
+		do
+		{
+			b >>= Long.numberOfTrailingZeros(b);
+
+			if(a > b)
+			{
+				final long tmp = a;
+				a = b;
+				b = tmp;
+			}
+
+			b -= a;
+		} while(b != 0);
+
+		return a << shift;
+	}
+
+	/**
+	 * Reduces and packs a fraction.
+	 * <p>
+	 * The denominator must be positive, and neither value may exceed
+	 * 2<sup>63</sup> - 1 in magnitude.
+	 *
+	 * @throws ArithmeticException if the reduced fraction cannot be packed.
+	 */
+	/* package */ static long reduce(long numerator, long denominator)
+	{
+		if(numerator == 0)
+			return 0;
+
+		final long divisor = gcd(Math.abs(numerator), denominator);
+		if(divisor != 1)
+		{
+			numerator /= divisor;
+			denominator /= divisor;
+		}
+
+		if(numerator < Integer.MIN_VALUE || numerator > Integer.MAX_VALUE || denominator > Integer.MAX_VALUE)
+			throw new ArithmeticException("Overflow: " + numerator + "/" + denominator);
+
+		return (numerator << 32) | denominator;
+	}
+
+	private FractionMath() {}
+}
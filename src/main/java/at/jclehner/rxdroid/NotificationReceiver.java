@@ -77,8 +77,6 @@ public class NotificationReceiver extends BroadcastReceiver
 	private static final int LED_ON_MS = 500;
 	private static final int LED_OFF_MS = LED_CYCLE_MS - LED_ON_MS;
 
-	private static final Class<?>[] EVENT_HANDLER_ARG_TYPES = { Date.class, int.class };
-
 	public interface OnDoseTimeChangeListener
 	{
 		void onDoseTimeBegin(Date date, int doseTime);
@@ -205,9 +203,18 @@ public class NotificationReceiver extends BroadcastReceiver
 				{
 
 					final boolean isDoseTimeEnd = intent.getBooleanExtra(EXTRA_IS_DOSE_TIME_END, false);
-					final String eventName = isDoseTimeEnd ? "onDoseTimeEnd" : "onDoseTimeBegin";
 
-					sEventMgr.post(eventName, EVENT_HANDLER_ARG_TYPES, date, doseTime);
+					sEventMgr.post(new EventDispatcher.Invoker<OnDoseTimeChangeListener>() {
+
+						@Override
+						public void invoke(OnDoseTimeChangeListener listener)
+						{
+							if(isDoseTimeEnd)
+								listener.onDoseTimeEnd(date, doseTime);
+							else
+								listener.onDoseTimeBegin(date, doseTime);
+						}
+					});
 				}
 			}
 
@@ -215,7 +215,14 @@ public class SettingsActivity extends AppCompatActivity
 			if(p != null)
 			{
 				final long millis = Database.getLoadingTimeMillis();
-				final String str = new Formatter((Locale) null).format("%1.3fs", millis / 1000f).toString();
+				final long pagingMillis = Database.getPagingTimeMillis();
+				final Formatter f = new Formatter((Locale) null);
+
+				f.format("%1.3fs", (millis - pagingMillis) / 1000f);
+				if(pagingMillis != 0)
+					f.format(" + %1.3fs", pagingMillis / 1000f);
+
+				final String str = f.toString();
 				p.setSummary(getString(R.string._msg_db_stats, str));
 			}
 
@@ -49,14 +49,14 @@ public class SystemEventReceiver extends BroadcastReceiver
 		public void onTimeChanged(int type);
 	}
 
-	private static final EventDispatcher<Object> sListeners =
-			new EventDispatcher<Object>();
+	private static final EventDispatcher<OnSystemTimeChangeListener> sListeners =
+			new EventDispatcher<OnSystemTimeChangeListener>();
 
-	public static void registerOnSystemTimeChangeListener(Object l) {
+	public static void registerOnSystemTimeChangeListener(OnSystemTimeChangeListener l) {
 		sListeners.register(l);
 	}
 
-	public static void unregisterOnSystemTimeChangeListener(Object l) {
+	public static void unregisterOnSystemTimeChangeListener(OnSystemTimeChangeListener l) {
 		sListeners.unregister(l);
 	}
 
@@ -99,7 +99,14 @@ public class SystemEventReceiver extends BroadcastReceiver
 				}
 			}
 
-			sListeners.post("onTimeChanged", new Class<?>[] { int.class }, actionToListenerType(intent.getAction()));
+			final int type = actionToListenerType(intent.getAction());
+			sListeners.post(new EventDispatcher.Invoker<OnSystemTimeChangeListener>() {
+
+				@Override
+				public void invoke(OnSystemTimeChangeListener listener) {
+					listener.onTimeChanged(type);
+				}
+			});
 		}
 		else if(Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction()))
 		{
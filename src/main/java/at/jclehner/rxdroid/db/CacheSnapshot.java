@@ -0,0 +1,463 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import android.content.Context;
+import android.util.Log;
+import at.jclehner.rxdroid.Fraction;
+import at.jclehner.rxdroid.FractionMath;
+
+/**
+ * Binary snapshot of the entry cache.
+ * <p>
+ * Loading the cache from SQLite means mapping each row through ORMLite's
+ * reflection-based machinery, and parsing every Fraction from its string
+ * representation. A snapshot instead stores all cached entries in a compact
+ * binary format, which is read from a memory-mapped file.
+ * <p>
+ * The file consists of a fixed-size header, followed by the payload, which
+ * contains the entries of each class in {@link Database#CLASSES}, prefixed by their
+ * count. All values are stored in big-endian byte order.
+ * <p>
+ * A snapshot is only used if its format version, the DB's <code>user_version</code>
+ * and the size and modification time of the DB file (and its write-ahead log, if
+ * any) match the values recorded in the header, and if the payload's checksum is
+ * correct. Note that <code>PRAGMA data_version</code> cannot be used for this, as
+ * its value is only meaningful within a single connection, and is thus lost when
+ * the process dies.
+ *
+ * @author Joseph Lehner
+ *
+ */
+final class CacheSnapshot
+{
+	private static final String TAG = CacheSnapshot.class.getSimpleName();
+
+	private static final String FILENAME = "cache.snapshot";
+
+	private static final int MAGIC = 0x52784353; // "RxCS"
+	private static final int FORMAT_VERSION = 2;
+
+	// magic, format version, user_version, DB size and mtime, WAL size and mtime,
+	// DoseEvents cached since, payload length and checksum.
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 4 * 8 + 8 + 4 + 8;
+	private static final int OFFSET_PAYLOAD_INFO = HEADER_SIZE - 12;
+
+	private static final long NULL_DATE = Long.MIN_VALUE;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	final List<Drug> drugs;
+	final List<DoseEvent> doseEvents;
+	final List<Patient> patients;
+
+	/**
+	 * The date since which DoseEvents were cached, or <code>null</code> if
+	 * all of them were.
+	 */
+	final Date doseEventsCachedSince;
+
+	private CacheSnapshot(List<Drug> drugs, List<DoseEvent> doseEvents, List<Patient> patients,
+			Date doseEventsCachedSince)
+	{
+		this.drugs = drugs;
+		this.doseEvents = doseEvents;
+		this.patients = patients;
+		this.doseEventsCachedSince = doseEventsCachedSince;
+	}
+
+	@SuppressWarnings("unchecked")
+	<E extends Entry> List<E> get(Class<E> clazz)
+	{
+		if(clazz == Drug.class)
+			return (List<E>) drugs;
+		else if(clazz == DoseEvent.class)
+			return (List<E>) doseEvents;
+		else if(clazz == Patient.class)
+			return (List<E>) patients;
+
+		throw new IllegalArgumentException(clazz.getName());
+	}
+
+	/**
+	 * Writes a snapshot.
+	 * <p>
+	 * Must only be called if all cached entries have been written to the DB, and no
+	 * other thread can modify the DB until this function returns.
+	 *
+	 * @param dbVersion The DB's <code>user_version</code>.
+	 */
+	static void write(Context context, int dbVersion, List<Drug> drugs, List<DoseEvent> doseEvents,
+			List<Patient> patients, Date doseEventsCachedSince) throws IOException
+	{
+		final File file = getFile(context);
+		final File tempFile = new File(file.getPath() + ".tmp");
+
+		final CRC32 crc = new CRC32();
+		final Writer out = new Writer(new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tempFile))));
+
+		int payloadLength;
+
+		try
+		{
+			final long[] dbStats = getDbStats(context);
+
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(dbVersion);
+
+			for(long stat : dbStats)
+				out.writeLong(stat);
+
+			out.writeDate(doseEventsCachedSince);
+			// payload length and checksum, filled in below
+			out.writeInt(0);
+			out.writeLong(0);
+
+			out.startChecksum(crc);
+
+			out.writeInt(drugs.size());
+			for(Drug drug : drugs)
+				drug.writeTo(out);
+
+			out.writeInt(doseEvents.size());
+			for(DoseEvent event : doseEvents)
+				event.writeTo(out);
+
+			out.writeInt(patients.size());
+			for(Patient patient : patients)
+				patient.writeTo(out);
+
+			payloadLength = out.size() - HEADER_SIZE;
+		}
+		finally
+		{
+			out.close();
+		}
+
+		final RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+
+		try
+		{
+			raf.seek(OFFSET_PAYLOAD_INFO);
+			raf.writeInt(payloadLength);
+			raf.writeLong(crc.getValue());
+			raf.getFD().sync();
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		if(!tempFile.renameTo(file))
+		{
+			tempFile.delete();
+			throw new IOException("Failed to rename " + tempFile + " to " + file);
+		}
+	}
+
+	/**
+	 * Reads a snapshot.
+	 *
+	 * @param dbVersion The DB's <code>user_version</code>.
+	 * @return the snapshot, or <code>null</code> if there is no valid snapshot.
+	 */
+	static CacheSnapshot read(Context context, int dbVersion)
+	{
+		final File file = getFile(context);
+		if(!file.exists())
+			return null;
+
+		try
+		{
+			final FileInputStream in = new FileInputStream(file);
+
+			try
+			{
+				final FileChannel channel = in.getChannel();
+				final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				return read(context, dbVersion, buffer);
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException e)
+		{
+			Log.w(TAG, "Failed to read " + file, e);
+		}
+		catch(RuntimeException e)
+		{
+			// Thrown by the entries' readFrom() functions when encountering garbage
+			Log.w(TAG, "Invalid snapshot " + file, e);
+		}
+
+		delete(context);
+		return null;
+	}
+
+	static void delete(Context context) {
+		getFile(context).delete();
+	}
+
+	private static CacheSnapshot read(Context context, int dbVersion, ByteBuffer buffer)
+	{
+		if(buffer.remaining() < HEADER_SIZE)
+			return invalid("truncated header");
+
+		final Reader in = new Reader(buffer);
+
+		if(in.readInt() != MAGIC)
+			return invalid("bad magic");
+
+		final int formatVersion = in.readInt();
+		if(formatVersion != FORMAT_VERSION)
+			return invalid("format version " + formatVersion);
+
+		final int snapshotDbVersion = in.readInt();
+		if(snapshotDbVersion != dbVersion)
+			return invalid("DB version " + snapshotDbVersion + ", expected " + dbVersion);
+
+		for(long stat : getDbStats(context))
+		{
+			if(in.readLong() != stat)
+				return invalid("DB was modified");
+		}
+
+		final Date doseEventsCachedSince = in.readDate();
+		final int payloadLength = in.readInt();
+		final long checksum = in.readLong();
+
+		if(payloadLength < 0 || payloadLength != buffer.remaining())
+			return invalid("payload length " + payloadLength + ", actual " + buffer.remaining());
+
+		if(checksum(buffer) != checksum)
+			return invalid("checksum mismatch");
+
+		final int drugCount = in.readCount();
+		final List<Drug> drugs = new ArrayList<Drug>(drugCount);
+		for(int i = 0; i != drugCount; ++i)
+			drugs.add(Drug.readFrom(in));
+
+		final int doseEventCount = in.readCount();
+		final List<DoseEvent> doseEvents = new ArrayList<DoseEvent>(doseEventCount);
+		for(int i = 0; i != doseEventCount; ++i)
+			doseEvents.add(DoseEvent.readFrom(in));
+
+		final int patientCount = in.readCount();
+		final List<Patient> patients = new ArrayList<Patient>(patientCount);
+		for(int i = 0; i != patientCount; ++i)
+			patients.add(Patient.readFrom(in));
+
+		if(buffer.hasRemaining())
+			return invalid(buffer.remaining() + " trailing bytes");
+
+		return new CacheSnapshot(drugs, doseEvents, patients, doseEventsCachedSince);
+	}
+
+	private static CacheSnapshot invalid(String reason)
+	{
+		Log.i(TAG, "Ignoring snapshot: " + reason);
+		return null;
+	}
+
+	private static long checksum(ByteBuffer buffer)
+	{
+		final CRC32 crc = new CRC32();
+		final ByteBuffer payload = buffer.duplicate();
+		final byte[] chunk = new byte[8192];
+
+		while(payload.hasRemaining())
+		{
+			final int length = Math.min(chunk.length, payload.remaining());
+			payload.get(chunk, 0, length);
+			crc.update(chunk, 0, length);
+		}
+
+		return crc.getValue();
+	}
+
+	private static long[] getDbStats(Context context)
+	{
+		final File db = context.getDatabasePath(DatabaseHelper.DB_NAME);
+		final File wal = new File(db.getPath() + "-wal");
+
+		return new long[] { db.length(), db.lastModified(), wal.length(), wal.lastModified() };
+	}
+
+	private static File getFile(Context context) {
+		return new File(context.getFilesDir(), FILENAME);
+	}
+
+	/**
+	 * Used by entries for writing themselves to a snapshot.
+	 */
+	static final class Writer
+	{
+		private final DataOutputStream mOut;
+		private DataOutputStream mCheckedOut;
+
+		private Writer(DataOutputStream out) {
+			mOut = out;
+		}
+
+		void writeInt(int value) throws IOException {
+			out().writeInt(value);
+		}
+
+		void writeLong(long value) throws IOException {
+			out().writeLong(value);
+		}
+
+		void writeBoolean(boolean value) throws IOException {
+			out().writeBoolean(value);
+		}
+
+		void writeString(String value) throws IOException
+		{
+			if(value == null)
+				out().writeInt(-1);
+			else
+			{
+				final byte[] bytes = value.getBytes(UTF_8);
+				out().writeInt(bytes.length);
+				out().write(bytes);
+			}
+		}
+
+		void writeDate(Date value) throws IOException {
+			out().writeLong(value != null ? value.getTime() : NULL_DATE);
+		}
+
+		void writeFraction(Fraction value) throws IOException
+		{
+			if(value == null)
+				value = Fraction.ZERO;
+
+			out().writeInt(value.numerator());
+			out().writeInt(value.denominator());
+		}
+
+		private void startChecksum(CRC32 crc) {
+			mCheckedOut = new DataOutputStream(new CheckedOutputStream(mOut, crc));
+		}
+
+		private int size() throws IOException
+		{
+			// everything written to mCheckedOut ends up in mOut
+			out().flush();
+			return mOut.size();
+		}
+
+		private void close() throws IOException {
+			(mCheckedOut != null ? mCheckedOut : mOut).close();
+		}
+
+		private DataOutputStream out() {
+			return mCheckedOut != null ? mCheckedOut : mOut;
+		}
+	}
+
+	/**
+	 * Used by entries for reading themselves from a snapshot.
+	 * <p>
+	 * All functions throw a {@link BufferUnderflowException} if the snapshot
+	 * is truncated.
+	 */
+	static final class Reader
+	{
+		private final ByteBuffer mBuffer;
+
+		private Reader(ByteBuffer buffer) {
+			mBuffer = buffer;
+		}
+
+		int readInt() {
+			return mBuffer.getInt();
+		}
+
+		long readLong() {
+			return mBuffer.getLong();
+		}
+
+		boolean readBoolean() {
+			return mBuffer.get() != 0;
+		}
+
+		String readString()
+		{
+			final int length = mBuffer.getInt();
+			if(length == -1)
+				return null;
+			else if(length < 0 || length > mBuffer.remaining())
+				throw new BufferUnderflowException();
+
+			final byte[] bytes = new byte[length];
+			mBuffer.get(bytes);
+			return new String(bytes, UTF_8);
+		}
+
+		Date readDate()
+		{
+			final long time = mBuffer.getLong();
+			return time != NULL_DATE ? new Date(time) : null;
+		}
+
+		Fraction readFraction()
+		{
+			final int numerator = mBuffer.getInt();
+			final int denominator = mBuffer.getInt();
+
+			// Returns shared instances for common values, as when loading from the DB
+			return Fraction.fromPackedLong(FractionMath.pack(numerator, denominator));
+		}
+
+		private int readCount()
+		{
+			final int count = mBuffer.getInt();
+			if(count < 0 || count > mBuffer.remaining())
+				throw new BufferUnderflowException();
+
+			return count;
+		}
+	}
+}
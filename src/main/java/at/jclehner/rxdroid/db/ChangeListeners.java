@@ -0,0 +1,131 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import at.jclehner.androidutils.EventDispatcher;
+import at.jclehner.rxdroid.db.Database.OnChangeListener;
+import at.jclehner.rxdroid.util.IntHashMap;
+
+/**
+ * Registry of {@link OnChangeListener}s.
+ * <p>
+ * Listeners are either notified of all changes, or only of changes to
+ * entries of a specific class that belong to a specific drug (see
+ * {@link #getDrugId(Entry)}). Thus, a change to one drug only wakes
+ * up the listeners of that drug, instead of every view on screen.
+ *
+ * @author Joseph Lehner
+ *
+ */
+/* package */ final class ChangeListeners
+{
+	private final EventDispatcher<OnChangeListener> mGlobal =
+			new EventDispatcher<OnChangeListener>();
+
+	private final HashMap<Class<?>, IntHashMap<EventDispatcher<OnChangeListener>>> mByDrugId =
+			new HashMap<Class<?>, IntHashMap<EventDispatcher<OnChangeListener>>>();
+
+	void register(OnChangeListener listener) {
+		mGlobal.register(listener);
+	}
+
+	synchronized void register(OnChangeListener listener, Class<? extends Entry> clazz, int drugId)
+	{
+		IntHashMap<EventDispatcher<OnChangeListener>> dispatchers = mByDrugId.get(clazz);
+		if(dispatchers == null)
+		{
+			dispatchers = new IntHashMap<EventDispatcher<OnChangeListener>>();
+			mByDrugId.put(clazz, dispatchers);
+		}
+
+		EventDispatcher<OnChangeListener> dispatcher = dispatchers.get(drugId);
+		if(dispatcher == null)
+		{
+			dispatcher = new EventDispatcher<OnChangeListener>();
+			dispatchers.put(drugId, dispatcher);
+		}
+
+		dispatcher.register(listener);
+	}
+
+	/**
+	 * Removes the listener, regardless of how it was registered.
+	 */
+	synchronized void unregister(OnChangeListener listener)
+	{
+		mGlobal.unregister(listener);
+
+		final Iterator<IntHashMap<EventDispatcher<OnChangeListener>>> i =
+				mByDrugId.values().iterator();
+
+		while(i.hasNext())
+		{
+			final IntHashMap<EventDispatcher<OnChangeListener>> dispatchers = i.next();
+			for(int drugId : dispatchers.keys())
+			{
+				final EventDispatcher<OnChangeListener> dispatcher = dispatchers.get(drugId);
+				dispatcher.unregister(listener);
+
+				if(dispatcher.isEmpty())
+					dispatchers.remove(drugId);
+			}
+
+			if(dispatchers.isEmpty())
+				i.remove();
+		}
+	}
+
+	void post(Entry entry, EventDispatcher.Invoker<OnChangeListener> invoker)
+	{
+		mGlobal.post(invoker);
+
+		final EventDispatcher<OnChangeListener> dispatcher = get(entry);
+		if(dispatcher != null)
+			dispatcher.post(invoker);
+	}
+
+	/**
+	 * Returns the ID of the drug an entry belongs to, or <code>-1</code>.
+	 */
+	static int getDrugId(Entry entry)
+	{
+		if(entry instanceof Drug)
+			return entry.id;
+		else if(entry instanceof DoseEvent)
+			return ((DoseEvent) entry).getDrugId();
+
+		return -1;
+	}
+
+	private synchronized EventDispatcher<OnChangeListener> get(Entry entry)
+	{
+		final int drugId = getDrugId(entry);
+		if(drugId == -1)
+			return null;
+
+		final IntHashMap<EventDispatcher<OnChangeListener>> dispatchers = mByDrugId.get(entry.getClass());
+		return dispatchers != null ? dispatchers.get(drugId) : null;
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory log of the most recent changes to the database.
+ * <p>
+ * Every change is assigned a sequence number, which is greater than that
+ * of all previous changes. A consumer that remembers the sequence number
+ * of the last change it has seen can thus ask for all changes since (see
+ * {@link Database#getChangesSince(long)}), and only update whatever has
+ * been affected by these.
+ * <p>
+ * Only the last {@link #CAPACITY} changes are kept. If older changes are
+ * requested, or if the database has been reloaded in the meantime, the
+ * consumer must start from scratch.
+ *
+ * @author Joseph Lehner
+ *
+ */
+public final class ChangeLog
+{
+	public static final int CAPACITY = 256;
+
+	/**
+	 * A single change.
+	 */
+	public static final class Change
+	{
+		// These match DbAction's ordinals
+		public static final int CREATED = 0;
+		public static final int UPDATED = 1;
+		public static final int DELETED = 2;
+
+		public final long sequence;
+		public final int type;
+		public final Entry entry;
+
+		private Change(long sequence, int type, Entry entry)
+		{
+			this.sequence = sequence;
+			this.type = type;
+			this.entry = entry;
+		}
+
+		/**
+		 * Returns the ID of the drug the changed entry belongs to, or <code>-1</code>.
+		 * <p>
+		 * Newly created drugs are not assigned an ID until they have been written
+		 * to the DB, so <code>-1</code> is also returned for these.
+		 */
+		public int getDrugId() {
+			return ChangeListeners.getDrugId(entry);
+		}
+
+		@Override
+		public String toString() {
+			return "Change { " + sequence + ", " + DbAction.values()[type] + ", " + entry + " }";
+		}
+	}
+
+	private final Change[] mChanges = new Change[CAPACITY];
+
+	// Sequence number of the oldest change still available
+	private long mFirst = 1;
+	// Sequence number of the next change
+	private long mNext = 1;
+
+	/* package */ ChangeLog() {}
+
+	/* package */ synchronized void add(DbAction action, Entry entry)
+	{
+		final long sequence = mNext++;
+		mChanges[(int) (sequence % CAPACITY)] = new Change(sequence, action.ordinal(), entry);
+
+		if(mNext - mFirst > CAPACITY)
+			mFirst = mNext - CAPACITY;
+	}
+
+	/**
+	 * Makes all previous changes unavailable.
+	 * <p>
+	 * Sequence numbers are not reset, so consumers will notice that they
+	 * have missed some changes.
+	 */
+	/* package */ synchronized void clear()
+	{
+		mFirst = mNext;
+
+		for(int i = 0; i != CAPACITY; ++i)
+			mChanges[i] = null;
+	}
+
+	/* package */ synchronized long getSequence() {
+		return mNext - 1;
+	}
+
+	/* package */ synchronized List<Change> getChangesSince(long sequence)
+	{
+		if(sequence < mFirst - 1 || sequence >= mNext)
+			return null;
+
+		final List<Change> changes = new ArrayList<Change>((int) (mNext - sequence - 1));
+
+		for(long s = sequence + 1; s < mNext; ++s)
+			changes.add(mChanges[(int) (s % CAPACITY)]);
+
+		return changes;
+	}
+}
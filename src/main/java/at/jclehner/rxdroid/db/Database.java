@@ -22,32 +22,30 @@
 package at.jclehner.rxdroid.db;
 
 
+import java.io.IOException;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
 import android.content.Context;
 import android.util.Log;
 import at.jclehner.androidutils.EventDispatcher;
 import at.jclehner.androidutils.Extras;
-import at.jclehner.androidutils.Reflect;
 import at.jclehner.rxdroid.BuildConfig;
 import at.jclehner.rxdroid.R;
 import at.jclehner.rxdroid.RxDroid;
-import at.jclehner.rxdroid.db.DatabaseHelper.DatabaseError;
+import at.jclehner.rxdroid.util.DateTime;
 import at.jclehner.rxdroid.util.Timer;
-import at.jclehner.rxdroid.util.Util;
-import at.jclehner.rxdroid.util.WrappedCheckedException;
-
-import com.j256.ormlite.dao.Dao;
 
 /**
  * All DB access goes here.
@@ -58,6 +56,10 @@ import com.j256.ormlite.dao.Dao;
  * initialized.
  * </p>
  * <p>
+ * The actual storage is provided by a {@link StorageBackend}. By default, this is the
+ * app's SQLite DB; use {@link #reload(StorageBackend)} to use another one.
+ * </p>
+ * <p>
  * Note that all ORMLite related classes will have members prefixed without the
  * usual "m" (i.e. "comment" instead of "mComment").
  *
@@ -73,6 +75,21 @@ public final class Database
 
 	/* package */ static final boolean USE_CUSTOM_CACHE = true;
 
+	/**
+	 * If <code>true</code>, only DoseEvents of the last {@link #HISTORY_WINDOW_DAYS}
+	 * days are cached on startup, older ones are paged in on demand.
+	 */
+	/* package */ static final boolean USE_HISTORY_WINDOW = true;
+
+	// Also the minimum number of days paged in at once
+	private static final int HISTORY_WINDOW_DAYS = 31;
+
+	/**
+	 * If <code>true</code>, the cache is loaded from a {@link CacheSnapshot} if
+	 * possible, and a new snapshot is written whenever the DB writer becomes idle.
+	 */
+	/* package */ static final boolean USE_CACHE_SNAPSHOT = true;
+
 	static final Class<?>[] CLASSES = {
 		Drug.class,
 		DoseEvent.class,
@@ -85,24 +102,79 @@ public final class Database
 
 	public static final int TABLE_COUNT = CLASSES.length;
 
-	private static final HashMap<Class<?>, List<? extends Entry>> sCache =
-			new HashMap<Class<?>, List<? extends Entry>>();
+	/**
+	 * The caches of all entry classes.
+	 * <p>
+	 * A new instance is created by every call to {@link Database#reload(Context)},
+	 * and only published once it has been fully loaded, so that readers never
+	 * see a partially loaded cache and don't need a lock to get hold of it.
+	 */
+	private static final class Caches
+	{
+		// Not modified once published
+		final HashMap<Class<?>, EntryCache<? extends Entry>> byClass =
+				new HashMap<Class<?>, EntryCache<? extends Entry>>();
+
+		final DoseEventIndex doseEventIndex = new DoseEventIndex();
+		final DrugPartitions drugPartitions = new DrugPartitions();
+
+		// DoseEvents dated on or after this date are cached; null if all of them are.
+		// Only modified while holding LOCK_PAGING.
+		volatile Date doseEventsCachedSince = null;
+
+		@SuppressWarnings("unchecked")
+		<T extends Entry> EntryCache<T> get(Class<T> clazz)
+		{
+			final EntryCache<T> cache = (EntryCache<T>) byClass.get(clazz);
+			if(cache == null)
+				throw new NoSuchElementException(clazz.getSimpleName());
+
+			return cache;
+		}
+	}
+
+	private static volatile Caches sCaches = null;
 
 	private static final Object LOCK_INIT = new Object();
+	// Guards paging in DoseEvents and sDoseEventsDeletedBefore
+	private static final Object LOCK_PAGING = new Object();
 
 	//private static Map<Class<?>, List<? extends Entry>> sCacheCopy = null;
 
-	private static DatabaseHelper sHelper;
-	private static boolean sIsLoaded = false;
+	private static volatile StorageBackend sBackend;
+	private static volatile boolean sIsLoaded = false;
 
 	private static boolean sInMemoryOnly = false;
 
 	private static long sDbLoadingTimeMillis = 0;
+	private static long sDbPagingTimeMillis = 0;
+
+	// DoseEvents dated before this date were deleted using deleteDoseEventsBefore(),
+	// which might not have been written yet, so these must never be paged in.
+	private static Date sDoseEventsDeletedBefore = null;
+
+	private static final DatabaseWriter sWriter = new DatabaseWriter();
+
+	private static final ThreadLocal<Batch> sBatch = new ThreadLocal<Batch>();
+
+	// Entry callbacks, by class and DbAction.ordinal(). None are currently registered:
+	// Schedule.CALLBACK_DELETED was never found by the reflective lookup this registry
+	// replaced, and Schedules are not persisted using this class anyway.
+	private static final HashMap<Class<?>, Entry.Callback<?>[]> sCallbacks =
+			new HashMap<Class<?>, Entry.Callback<?>[]>();
 
-	private static volatile int sPendingDaoOperations = 0;
+	// Used for detecting cache modifications while taking a snapshot. A modification
+	// is in progress from the moment the cache is changed, until the corresponding
+	// DB operation has been queued.
+	private static final AtomicInteger sModCount = new AtomicInteger();
+	private static final AtomicInteger sModsInProgress = new AtomicInteger();
 
-	private static EventDispatcher<Object> sEventMgr =
-			new EventDispatcher<Object>();
+	private static final ChangeListeners sChangeListeners = new ChangeListeners();
+	private static final ChangeLog sChangeLog = new ChangeLog();
+	private static final EventDispatcher<LiveQuery<?>> sLiveQueries =
+			new EventDispatcher<LiveQuery<?>>();
+	private static final EventDispatcher<OnInitializedListener> sInitializedListeners =
+			new EventDispatcher<OnInitializedListener>();
 
 	/**
 	 * Initializes the DB.
@@ -120,8 +192,11 @@ public final class Database
 	 *
 	 * @param context an android Context for creating the ORMLite database helper.
 	 */
-	public static synchronized void init(Context context)
+	public static void init(Context context)
 	{
+		if(sIsLoaded)
+			return;
+
 		synchronized(LOCK_INIT)
 		{
 			if(!sIsLoaded)
@@ -135,35 +210,79 @@ public final class Database
 			sInMemoryOnly = inMemoryOnly;
 	}
 
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public static synchronized void reload(Context context)
+	/**
+	 * (Re)loads the DB, using the app's SQLite DB.
+	 */
+	public static void reload(Context context)
 	{
 		if(context == null)
 			throw new NullPointerException();
 
+		reload(context, null);
+	}
+
+	/**
+	 * (Re)loads the DB, using the specified backend.
+	 * <p>
+	 * No cache snapshot is read, regardless of the backend.
+	 */
+	public static void reload(StorageBackend backend)
+	{
+		if(backend == null)
+			throw new NullPointerException();
+
+		reload(null, backend);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void reload(Context context, StorageBackend backend)
+	{
 		synchronized(LOCK_INIT)
 		{
+			// Until the new caches have been published, readers keep using the old ones
 			sIsLoaded = false;
-			sCache.clear();
 
-			if(sHelper != null)
+			if(sBackend != null)
 			{
-				sHelper.close();
-				sHelper = null;
+				sBackend.close();
+				sBackend = null;
 			}
 
-			sHelper = new DatabaseHelper(context);
+			sBackend = backend != null ? backend : new OrmLiteBackend(context);
 			sDbLoadingTimeMillis = 0;
+			sDbPagingTimeMillis = 0;
+
+			final Caches caches = new Caches();
 
 			if(USE_CUSTOM_CACHE)
 			{
+				CacheSnapshot snapshot = null;
+
+				if(USE_CACHE_SNAPSHOT && context != null)
+				{
+					final Timer timer = new Timer();
+					snapshot = CacheSnapshot.read(context, sBackend.getVersion());
+					sDbLoadingTimeMillis += timer.elapsed();
+
+					if(snapshot != null)
+						Log.i(TAG, "Read cache snapshot: " + timer);
+				}
+
 				// precache entries
 				for(Class clazz : CLASSES)
-					getCached(clazz);
+					loadCache(caches, clazz, snapshot);
 			}
 
+			sCaches = caches;
+			sChangeLog.clear();
 			sIsLoaded = true;
-			sEventMgr.post("onDatabaseInitialized");
+			sInitializedListeners.post(new EventDispatcher.Invoker<OnInitializedListener>() {
+
+				@Override
+				public void invoke(OnInitializedListener listener) {
+					listener.onDatabaseInitialized();
+				}
+			});
 		}
 	}
 
@@ -172,7 +291,11 @@ public final class Database
 		if(!sIsLoaded)
 			throw new RuntimeException("Database is not yet initialized");
 
-		return sHelper;
+		final StorageBackend backend = sBackend;
+		if(!(backend instanceof OrmLiteBackend))
+			throw new IllegalStateException("Not using an ORMLite backend");
+
+		return ((OrmLiteBackend) backend).getHelper();
 	}
 
 	/**
@@ -185,29 +308,151 @@ public final class Database
 	 * @see #OnDatabaseChangedListener
 	 * @param listener The listener to register.
 	 */
-	public static synchronized void registerEventListener(OnChangeListener listener) {
-		sEventMgr.register(listener);
+	public static void registerEventListener(OnChangeListener listener) {
+		sChangeListeners.register(listener);
+	}
+
+	/**
+	 * Add a listener that is only interested in a specific drug.
+	 * <p>
+	 * The listener will only be notified of changes to entries of the
+	 * specified class that belong to the drug with the specified ID, i.e.
+	 * the drug itself, or its dose events. To listen to both, register
+	 * the listener twice.
+	 *
+	 * @param listener The listener to register.
+	 * @param clazz Either {@link Drug} or {@link DoseEvent}.
+	 * @param drugId The ID of the drug.
+	 */
+	public static void registerEventListener(OnChangeListener listener, Class<? extends Entry> clazz, int drugId) {
+		sChangeListeners.register(listener, clazz, drugId);
 	}
 
 	/**
 	 * Removes a listener from the registry.
+	 * <p>
+	 * This removes all registrations of the listener, including those
+	 * made using {@link #registerEventListener(OnChangeListener, Class, int)}.
 	 *
 	 * @see #Database.OnDatabaseChangedListener
 	 * @param listener The listener to remove.
 	 */
-	public static synchronized void unregisterEventListener(OnChangeListener listener) {
-		sEventMgr.unregister(listener);
+	public static void unregisterEventListener(OnChangeListener listener) {
+		sChangeListeners.unregister(listener);
 	}
 
-	public static synchronized void registerOnInitializedListener(OnInitializedListener l) {
-		sEventMgr.register(l);
+	public static void registerOnInitializedListener(OnInitializedListener l) {
+		sInitializedListeners.register(l);
+	}
+
+	/**
+	 * Returns the sequence number of the most recent change.
+	 *
+	 * @see ChangeLog
+	 */
+	public static long getChangeSequence() {
+		return sChangeLog.getSequence();
+	}
+
+	/**
+	 * Returns all changes made after the one with the specified sequence number.
+	 * <p>
+	 * Unlike the events passed to an {@link OnChangeListener}, this includes changes
+	 * made with {@link #FLAG_DONT_NOTIFY_LISTENERS}, as well as DoseEvents removed
+	 * by {@link #deleteDoseEventsBefore(Date)}.
+	 *
+	 * @return the changes, ordered by their sequence number, or <code>null</code> if
+	 *     they are no longer available.
+	 * @see ChangeLog
+	 */
+	public static List<ChangeLog.Change> getChangesSince(long sequence) {
+		return sChangeLog.getChangesSince(sequence);
+	}
+
+	/**
+	 * Returns a live query over the cached entries of the specified class.
+	 * <p>
+	 * The query's result contains all entries matching <code>filter</code>,
+	 * ordered according to <code>comparator</code>, and is updated whenever
+	 * an entry of that class changes (see {@link LiveQuery}).
+	 *
+	 * @param filter The filter to apply, or <code>null</code> to include all entries.
+	 * @param comparator The order of the result, or <code>null</code> for the
+	 *     order in which entries were loaded or created.
+	 */
+	public static <T extends Entry> LiveQuery<T> observe(Class<T> clazz, Filter<T> filter,
+			Comparator<? super T> comparator)
+	{
+		final LiveQuery<T> query = new LiveQuery<T>(clazz, filter, comparator);
+		sLiveQueries.register(query);
+		query.load();
+		return query;
+	}
+
+	/* package */ static void closeLiveQuery(LiveQuery<?> query) {
+		sLiveQueries.unregister(query);
+	}
+
+	/**
+	 * Runs several database operations as one unit.
+	 * <p>
+	 * All calls to {@link #create(Entry)}, {@link #update(Entry)} and {@link #delete(Entry)}
+	 * made by <code>runnable</code> on the calling thread update the cache immediately,
+	 * but are written to the DB in a single transaction once <code>runnable</code> has
+	 * returned. Listeners are also notified only then, and only once per entry, with
+	 * multiple events for the same entry being merged (e.g. an entry that was created
+	 * and updated is only reported as created, while an entry that was created and
+	 * deleted is not reported at all).
+	 * <p>
+	 * Calls to this function may be nested, in which case everything is deferred
+	 * until the outermost call returns.
+	 */
+	public static void runInBatch(Runnable runnable)
+	{
+		Batch batch = sBatch.get();
+		if(batch == null)
+		{
+			batch = new Batch();
+			sBatch.set(batch);
+			beginModification();
+		}
+
+		++batch.depth;
+
+		try
+		{
+			runnable.run();
+		}
+		finally
+		{
+			if(--batch.depth == 0)
+			{
+				sBatch.remove();
+
+				try
+				{
+					if(!batch.operations.isEmpty())
+						sWriter.enqueueAll(batch.operations);
+				}
+				finally
+				{
+					endModification();
+				}
+
+				for(DatabaseWriter.Operation event : batch.events)
+				{
+					if(event.action != null)
+						dispatchEventToListeners(event.action, event.entry);
+				}
+			}
+		}
 	}
 
 	/**
 	 * Creates a new database entry and notifies listeners.
 	 */
 	public static <E extends Entry> void create(E entry, int flags) {
-		performDbOperation("create", entry, flags);
+		performDbOperation(DbAction.CREATE, entry, flags);
 	}
 
 	/**
@@ -221,7 +466,7 @@ public final class Database
 	 * Updates an existing database entry and notifies listeners.
 	 */
 	public static <E extends Entry> void update(E entry, int flags) {
-		performDbOperation("update", entry, flags);
+		performDbOperation(DbAction.UPDATE, entry, flags);
 	}
 
 	/**
@@ -231,11 +476,20 @@ public final class Database
 		update(entry, 0);
 	}
 
+	/**
+	 * Notifies listeners that an entry has been updated, without writing it.
+	 * <p>
+	 * Useful after a series of updates using {@link #FLAG_DONT_NOTIFY_LISTENERS}.
+	 */
+	public static void notifyUpdated(Entry entry) {
+		dispatchEventToListeners(DbAction.UPDATE, entry);
+	}
+
 	/**
 	 * Deletes an existing database entry and notifies listeners.
 	 */
 	public static <E extends Entry> void delete(E entry, int flags) {
-		performDbOperation("delete", entry, flags);
+		performDbOperation(DbAction.DELETE, entry, flags);
 	}
 
 	/**
@@ -245,34 +499,90 @@ public final class Database
 		delete(entry, 0);
 	}
 
-	public static <E extends Entry> void deleteByIds(Class<? extends Entry> clazz, Collection<Integer> ids)
+	public static <E extends Entry> void deleteByIds(Class<? extends Entry> clazz, Collection<Integer> ids) {
+		getBackend().deleteIds(clazz, ids);
+	}
+
+	/**
+	 * Deletes all DoseEvents dated before the specified date.
+	 * <p>
+	 * The events are evicted from the cache in one step, and deleted from the DB
+	 * using a single <code>DELETE</code> statement. The cost of this function thus
+	 * depends on the number of deleted events only, rather than on the total number
+	 * of DoseEvents. Listeners are not notified.
+	 *
+	 * @return the deleted events that were cached.
+	 */
+	public static List<DoseEvent> deleteDoseEventsBefore(Date date)
 	{
-		final Dao<? extends Entry, Integer> dao = getDaoChecked(clazz);
+		final List<DoseEvent> events = new ArrayList<DoseEvent>();
+
+		synchronized(LOCK_PAGING)
+		{
+			final Date midnight = DateTime.getMidnightDate(date);
+			if(sDoseEventsDeletedBefore == null || midnight.after(sDoseEventsDeletedBefore))
+				sDoseEventsDeletedBefore = midnight;
+		}
+
+		beginModification();
 
 		try
 		{
-			dao.deleteIds(ids);
+			if(USE_CUSTOM_CACHE)
+			{
+				final Caches caches = getCaches();
+				final EntryCache<DoseEvent> cache = caches.get(DoseEvent.class);
+				final Lock lock = cache.writeLock();
+
+				lock.lock();
+
+				try
+				{
+					caches.doseEventIndex.findBefore(DateTime.toEpochDay(date), events);
+					cache.removeAll(events);
+				}
+				finally
+				{
+					lock.unlock();
+				}
+
+				for(DoseEvent event : events)
+				{
+					Extras.remove(event);
+					onEntryChanged(DbAction.DELETE, event);
+				}
+			}
+
+			if(!sInMemoryOnly)
+			{
+				// The index compares dates by day, so delete everything before
+				// the date's midnight.
+				final DatabaseWriter.Operation op = DatabaseWriter.Operation.deleteBefore(
+						DoseEvent.class, DateTime.getMidnightDate(date));
+
+				final Batch batch = sBatch.get();
+				if(batch != null)
+					batch.operations.add(op);
+				else
+					sWriter.enqueue(op);
+			}
 		}
-		catch(SQLException e)
+		finally
 		{
-			throw new WrappedCheckedException(e);
+			endModification();
 		}
+
+		return events;
 	}
 
 	public static <T extends Entry> T find(Class<T> clazz, int id)
 	{
 		if(USE_CUSTOM_CACHE)
-			return Entries.findInCollectionById(getCached(clazz), id);
+			return getCache(clazz).find(id);
 		else
 		{
-			try
-			{
-				return getDaoChecked(clazz).queryForId(id);
-			}
-			catch(SQLException e)
-			{
-				throw new WrappedCheckedException(e);
-			}
+			final List<T> entries = getBackend().query(clazz, new Query().eq(Query.Field.ID, id));
+			return !entries.isEmpty() ? entries.get(0) : null;
 		}
 	}
 
@@ -290,36 +600,89 @@ public final class Database
 	}
 
 
-	public static <T extends Entry> List<T> getAll(Class<T> clazz)
+	/**
+	 * Returns all entries of the specified class.
+	 * <p>
+	 * The returned list is an immutable snapshot, which may be kept and
+	 * iterated without any further synchronization. Use {@link EntryList#getVersion()}
+	 * to find out whether the entries have changed since.
+	 */
+	public static <T extends Entry> EntryList<T> getAll(Class<T> clazz)
 	{
 		if(USE_CUSTOM_CACHE)
-			return new LinkedList<T>(getCached(clazz));
+			return getCache(clazz).snapshot();
 		else
-			return queryForAll(clazz);
+			return new EntryList<T>(queryForAll(clazz).toArray(), -1);
+	}
+
+	/**
+	 * Returns all entries of the specified class matching the query.
+	 * <p>
+	 * When using the custom cache, the query is answered using the cache's
+	 * indexes where possible (see {@link QueryPlanner}), otherwise, it is run
+	 * by the storage backend. The order of the returned entries is unspecified.
+	 *
+	 * @throws IllegalArgumentException if the query uses a field not supported
+	 *     by the specified class.
+	 */
+	public static <T extends Entry> List<T> query(Class<T> clazz, Query query)
+	{
+		query.check(clazz);
+
+		if(USE_CUSTOM_CACHE)
+			return QueryPlanner.run(clazz, query);
+
+		return getBackend().query(clazz, query);
 	}
 
 	public static <T extends Entry> int countAll(Class<T> clazz)
 	{
 		if(USE_CUSTOM_CACHE)
-			return getCached(clazz).size();
+			return getCache(clazz).size();
 		else
-			return getDaoChecked(clazz).getObjectCache().size(clazz);
+			return queryForAll(clazz).size();
 	}
 
 	public static boolean hasPendingOperations() {
-		return sPendingDaoOperations > 0;
+		return getPendingOperationCount() != 0;
 	}
 
+	/**
+	 * Returns the number of create/update/delete operations not yet written to the DB.
+	 */
+	public static int getPendingOperationCount() {
+		return sWriter.getPendingCount();
+	}
+
+	/**
+	 * Returns the total time spent loading entries.
+	 * <p>
+	 * This includes both the time spent loading the DB on startup, and the time
+	 * spent paging in older DoseEvents (see {@link #getPagingTimeMillis()}).
+	 */
 	public static long getLoadingTimeMillis() {
-		return sDbLoadingTimeMillis;
+		return sDbLoadingTimeMillis + sDbPagingTimeMillis;
 	}
 
-	static synchronized <T extends Entry> List<T> getCached(Class<T> clazz)
+	/**
+	 * Returns the time spent paging in DoseEvents not loaded on startup.
+	 */
+	public static long getPagingTimeMillis() {
+		return sDbPagingTimeMillis;
+	}
+
+	static <T extends Entry> List<T> getCached(Class<T> clazz)
 	{
 		return getCached(clazz, false);
 	}
 
-	static synchronized <T extends Entry> List<T> getCached(Class<T> clazz, boolean copy)
+	/**
+	 * Returns all cached entries of the specified class.
+	 *
+	 * @param copy If <code>true</code>, returns a modifiable copy, otherwise
+	 *     an immutable snapshot (see {@link #getAll(Class)}).
+	 */
+	static <T extends Entry> List<T> getCached(Class<T> clazz, boolean copy)
 	{
 		if(!USE_CUSTOM_CACHE)
 		{
@@ -328,62 +691,181 @@ public final class Database
 			return queryForAll(clazz);
 		}
 
-		if(!sCache.containsKey(clazz))
+		final EntryList<T> snapshot = getCache(clazz).snapshot();
+		return !copy ? snapshot : new ArrayList<T>(snapshot);
+	}
+
+	/**
+	 * Returns the DoseEvent index, having cached all events on or after the
+	 * specified date.
+	 *
+	 * @param date The date of the oldest event of interest, or <code>null</code>
+	 *     if all events are of interest.
+	 */
+	static DoseEventIndex getDoseEventIndex(Date date)
+	{
+		final Caches caches = getCaches();
+
+		if(USE_HISTORY_WINDOW && !isDoseEventCached(caches, date))
 		{
-			if(!sIsLoaded)
+			synchronized(LOCK_PAGING)
 			{
-				final Timer timer = new Timer();
-				final List<T> entries = queryForAll(clazz);
-				sCache.put(clazz, entries);
+				ensureDoseEventsCached(caches, date);
+			}
+		}
 
-//				if(LOGV)
-//				{
-//					for(T t : entries)
-//						Log.v(TAG, "  " + t);
-//				}
+		return caches.doseEventIndex;
+	}
 
-				sDbLoadingTimeMillis += timer.elapsed();
+	/**
+	 * Returns a column-oriented copy of a drug's DoseEvents.
+	 * <p>
+	 * The history is rebuilt only if the drug's DoseEvents have changed since
+	 * the previous call, so repeated calls are cheap. Note that calling this
+	 * function pages in all DoseEvents.
+	 */
+	public static DoseHistory getDoseHistory(int drugId)
+	{
+		if(!USE_CUSTOM_CACHE)
+		{
+			final List<DoseEvent> events = new ArrayList<DoseEvent>();
 
-				Log.i(TAG, "Cached " + entries.size() + " entries of type " + clazz.getSimpleName() + ": " + timer);
+			for(DoseEvent event : queryForAll(DoseEvent.class))
+			{
+				if(event.getDrugId() == drugId)
+					events.add(event);
 			}
-			else
-				throw new NoSuchElementException(clazz.getSimpleName());
+
+			Collections.sort(events, DoseHistory.ORDER);
+			return new DoseHistory(events);
 		}
 
-		@SuppressWarnings("unchecked")
-		List<T> cached = (List<T>) sCache.get(clazz);
+		return getDoseEventIndex(null).getHistory(drugId);
+	}
 
-		return !copy ? cached : new ArrayList<>(cached);
+	/**
+	 * Returns the index of cached Drugs by patient.
+	 */
+	static DrugPartitions getDrugPartitions() {
+		return getCaches().drugPartitions;
 	}
 
-	@SuppressWarnings({ "unchecked", "unused" })
-	private static <E extends Entry> void createWithoutMagic(E entry) throws SQLException
+	private static boolean isDoseEventCached(Caches caches, Date date)
 	{
-		final Dao<E, Integer> dao = (Dao<E, Integer>) getDaoChecked(entry.getClass());
-		dao.create(entry);
+		final Date cachedSince = caches.doseEventsCachedSince;
+		return cachedSince == null || (date != null && !date.before(cachedSince));
+	}
+
+	// Must hold LOCK_PAGING
+	private static void ensureDoseEventsCached(Caches caches, Date date)
+	{
+		if(isDoseEventCached(caches, date))
+			return;
+
+		final Date cachedSince = caches.doseEventsCachedSince;
+		final EntryCache<DoseEvent> cache = caches.get(DoseEvent.class);
+
+		final Date newCachedSince;
+
+		if(date != null)
+		{
+			// Page in at least HISTORY_WINDOW_DAYS at once, to avoid lots of tiny
+			// queries when going back in time one day at a time.
+			final Date minPage = DateTime.add(cachedSince, Calendar.DAY_OF_MONTH, -HISTORY_WINDOW_DAYS);
+			newCachedSince = DateTime.getMidnightDate(DateTime.min(date, minPage));
+		}
+		else
+			newCachedSince = null;
+
+		Date from = newCachedSince;
+		if(sDoseEventsDeletedBefore != null && (from == null || from.before(sDoseEventsDeletedBefore)))
+			from = sDoseEventsDeletedBefore;
+
+		final Timer timer = new Timer();
+		final List<DoseEvent> events;
+
+		if(from == null || from.before(cachedSince))
+			events = queryDoseEvents(from, cachedSince);
+		else
+			events = Collections.emptyList();
+
+		cache.prependAll(events);
+		caches.doseEventsCachedSince = newCachedSince;
+		sDbPagingTimeMillis += timer.elapsed();
+
+		Log.i(TAG, "Paged in " + events.size() + " DoseEvents before " + DateTime.toDateString(cachedSince) +
+				": " + timer);
 	}
 
-	private static <T> Dao<T, Integer> getDaoChecked(Class<T> clazz) {
-		return sHelper.getDaoChecked(clazz);
+	/**
+	 * Queries all DoseEvents within the specified range, ordered by date.
+	 *
+	 * @param from Inclusive lower bound, or <code>null</code>.
+	 * @param to Exclusive upper bound, or <code>null</code>.
+	 */
+	private static List<DoseEvent> queryDoseEvents(Date from, Date to) {
+		return getBackend().loadDoseEvents(from, to);
 	}
 
-	@SuppressWarnings({ "unchecked", "unused" })
-	private static void createOrUpdateWithoutMagic(Object entry)
+	static <T extends Entry> EntryCache<T> getCache(Class<T> clazz) {
+		return getCaches().get(clazz);
+	}
+
+	private static Caches getCaches()
 	{
-		try
+		Caches caches = sCaches;
+		if(caches == null)
+		{
+			// Wait for the initial load to finish, if it is in progress
+			synchronized(LOCK_INIT)
+			{
+				caches = sCaches;
+			}
+
+			if(caches == null)
+				throw new IllegalStateException("Database is not yet initialized");
+		}
+
+		return caches;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends Entry> void loadCache(Caches caches, Class<T> clazz, CacheSnapshot snapshot)
+	{
+		final Timer timer = new Timer();
+		final List<T> entries;
+
+		if(snapshot != null)
 		{
-			@SuppressWarnings("rawtypes")
-			final Dao dao = sHelper.getDao(entry.getClass());
-			dao.createOrUpdate(entry);
+			entries = snapshot.get(clazz);
+
+			if(clazz == DoseEvent.class)
+				caches.doseEventsCachedSince = snapshot.doseEventsCachedSince;
 		}
-		catch (SQLException e)
+		else if(clazz == DoseEvent.class && USE_HISTORY_WINDOW)
 		{
-			throw new WrappedCheckedException(e);
+			caches.doseEventsCachedSince = DateTime.getMidnightDate(DateTime.add(
+					DateTime.today(), Calendar.DAY_OF_MONTH, -HISTORY_WINDOW_DAYS));
+			entries = (List<T>) queryDoseEvents(caches.doseEventsCachedSince, null);
 		}
+		else
+			entries = queryForAll(clazz);
+
+		final EntryCache<T> cache = new EntryCache<T>(entries);
+		caches.byClass.put(clazz, cache);
+
+		if(clazz == DoseEvent.class)
+			((EntryCache<DoseEvent>) cache).addIndex(caches.doseEventIndex);
+		else if(clazz == Drug.class)
+			((EntryCache<Drug>) cache).addIndex(caches.drugPartitions);
+
+		sDbLoadingTimeMillis += timer.elapsed();
+
+		Log.i(TAG, "Cached " + entries.size() + " entries of type " + clazz.getSimpleName() + ": " + timer);
 	}
 
 	@SuppressWarnings("unchecked")
-	private static <E extends Entry> void performDbOperation(String methodName, E entry, int flags)
+	private static <E extends Entry> void performDbOperation(DbAction action, E entry, int flags)
 	{
 		if(entry.id == ID_VIRTUAL_ENTRY)
 			throw new IllegalArgumentException("Cannot perform database operation on virtual entries");
@@ -392,158 +874,242 @@ public final class Database
 		Extras.remove(entry);
 
 		final Class<E> clazz = (Class<E>) entry.getClass();
-		final List<E> cached = getCached(clazz);
+		final Batch batch = sBatch.get();
 
-		if(USE_CUSTOM_CACHE)
+		beginModification();
+
+		try
 		{
-			if("create".equals(methodName))
-				cached.add(entry);
-			else if("delete".equals(methodName))
-				cached.remove(entry);
-			else if("update".equals(methodName))
+			if(USE_CUSTOM_CACHE)
 			{
-				final Entry oldEntry = Entries.findInCollectionById(cached, entry.getId());
-				int index = cached.indexOf(oldEntry);
+				final EntryCache<E> cache = getCache(clazz);
+
+				// Otherwise, paging in this event's date later on would cache it twice
+				if(USE_HISTORY_WINDOW && entry instanceof DoseEvent)
+					getDoseEventIndex(((DoseEvent) entry).getDate());
 
-				cached.remove(index);
-				cached.add(index, entry);
+				switch(action)
+				{
+					case CREATE:
+						cache.add(entry);
+						break;
+
+					case UPDATE:
+						cache.replace(entry);
+						break;
+
+					case DELETE:
+						cache.remove(entry);
+						break;
+				}
 			}
-			else
-				throw new IllegalArgumentException("methodName=" + methodName);
-		}
 
-		final Dao<E, Integer> dao = getDaoChecked(clazz);
-		runDaoMethodInThread(dao, methodName, entry);
+			onEntryChanged(action, entry);
 
-		final String callbackName = "on" + Util.capitalize(methodName);
-		final Method m = Reflect.getMethod(clazz, callbackName, clazz);
-		if(m != null)
+			if(!sInMemoryOnly)
+			{
+				if(batch != null)
+					batch.operations.add(new DatabaseWriter.Operation(action, entry));
+				else
+					sWriter.enqueue(action, entry);
+			}
+		}
+		finally
 		{
-			Reflect.invokeMethod(m, null, entry);
-			if(LOGV) Log.v(TAG, "Ran callback " + callbackName);
+			endModification();
 		}
-		else if(LOGV)
-			Log.v(TAG, "No callback " + callbackName + " for " + clazz.getSimpleName());
+
+		final Entry.Callback<E> callback = getCallback(clazz, action);
+		if(callback != null)
+			callback.call(entry);
 
 		if((flags & FLAG_DONT_NOTIFY_LISTENERS) == 0)
 		{
-			final char first = Character.toUpperCase(methodName.charAt(0));
-			final String eventName = "onEntry" + first + methodName.substring(1) + "d";
-			dispatchEventToListeners(eventName, entry, 0);
+			if(batch != null)
+				batch.addEvent(action, entry);
+			else
+				dispatchEventToListeners(action, entry);
 		}
 	}
 
-	private static <E extends Entry, ID> void runDaoMethodInThread(final Dao<E, ID> dao, final String methodName, final E entry)
+	/**
+	 * Records a change in the change log, and updates all live queries.
+	 * <p>
+	 * Called for every change to the cache, regardless of whether
+	 * listeners are notified.
+	 */
+	private static void onEntryChanged(final DbAction action, final Entry entry)
 	{
-		if(sInMemoryOnly)
-			return;
-
-		++sPendingDaoOperations;
-
-		final Thread th = new Thread() {
+		sChangeLog.add(action, entry);
+		sLiveQueries.post(new EventDispatcher.Invoker<LiveQuery<?>>() {
 
 			@Override
-			public void run()
-			{
-				try
-				{
-					runDaoMethod(dao, methodName, entry);
-				}
-				finally
-				{
-					--sPendingDaoOperations;
-				}
+			public void invoke(LiveQuery<?> query) {
+				query.onChange(action, entry);
 			}
-		};
-
-		th.start();
+		});
 	}
 
-	private static <E extends Entry, ID> void runDaoMethod(final Dao<E, ID> dao, final String methodName, final E entry)
+	private static void beginModification()
 	{
-		Exception ex;
+		sModsInProgress.incrementAndGet();
+		sModCount.incrementAndGet();
+	}
 
-		try
-		{
-			final Method m = dao.getClass().getMethod(methodName, Object.class);
-			final Timer t = LOGV ? new Timer() : null;
+	private static void endModification() {
+		sModsInProgress.decrementAndGet();
+	}
 
-			synchronized(LOCK_DATA)
-			{
-				if(!sHelper.isOpen())
-				{
-					Log.w(TAG, "Database was not open; reopening!");
-					reload(RxDroid.getContext());
-				}
+	/**
+	 * Writes a cache snapshot, if the cache matches the DB's contents.
+	 * <p>
+	 * Called by the writer thread once it has been idle for a while, which
+	 * guarantees that the DB is not modified while writing the snapshot.
+	 */
+	/* package */ static void onWriterIdle()
+	{
+		if(!USE_CUSTOM_CACHE || !USE_CACHE_SNAPSHOT || sInMemoryOnly || !sIsLoaded)
+			return;
 
-				m.invoke(dao, entry);
-			}
+		final StorageBackend backend = sBackend;
+		if(!backend.isPersistent())
+			return;
 
-			RxDroid.notifyBackupDataChanged();
+		final int modCount = sModCount.get();
+		if(sModsInProgress.get() != 0 || sWriter.getPendingCount() != 0)
+			return;
 
-			if(LOGV) Log.v(TAG, "runDaoMethod: " + methodName + ": " + t);
+		final List<Drug> drugs;
+		final List<DoseEvent> doseEvents;
+		final List<Patient> patients;
+		final Date doseEventsCachedSince;
 
-			//dao.deleteBuilder().where().idEq(id)
+		// Paging in DoseEvents doesn't count as a modification, so make sure
+		// that doseEventsCachedSince matches the DoseEvent snapshot.
+		synchronized(LOCK_PAGING)
+		{
+			final Caches caches = getCaches();
+			drugs = caches.get(Drug.class).snapshot();
+			doseEvents = caches.get(DoseEvent.class).snapshot();
+			patients = caches.get(Patient.class).snapshot();
+			doseEventsCachedSince = caches.doseEventsCachedSince;
+		}
 
+		// Any modification after this point will be written to the DB after the
+		// snapshot, thus invalidating it.
+		if(sModCount.get() != modCount)
 			return;
-		}
-		catch(IllegalArgumentException e)
+
+		final Context context = RxDroid.getContext();
+		final Timer timer = new Timer();
+
+		try
 		{
-			ex = e;
-			// handled at end of function
+			synchronized(LOCK_DATA)
+			{
+				CacheSnapshot.write(context, backend.getVersion(),
+						drugs, doseEvents, patients, doseEventsCachedSince);
+			}
+
+			Log.i(TAG, "Wrote cache snapshot: " + timer);
 		}
-		catch(IllegalAccessException e)
+		catch(IOException e)
 		{
-			ex = e;
-			// handled at end of function
+			Log.w(TAG, "Failed to write cache snapshot", e);
+			CacheSnapshot.delete(context);
 		}
-		catch(InvocationTargetException e)
+	}
+
+	@SuppressWarnings("unused")
+	private static <E extends Entry> void registerCallback(Class<E> clazz, DbAction action, Entry.Callback<E> callback)
+	{
+		Entry.Callback<?>[] callbacks = sCallbacks.get(clazz);
+		if(callbacks == null)
 		{
-			ex = e;
-			// handled at end of function
+			callbacks = new Entry.Callback<?>[DbAction.values().length];
+			sCallbacks.put(clazz, callbacks);
 		}
-		catch(SecurityException e)
+
+		callbacks[action.ordinal()] = callback;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <E extends Entry> Entry.Callback<E> getCallback(Class<E> clazz, DbAction action)
+	{
+		final Entry.Callback<?>[] callbacks = sCallbacks.get(clazz);
+		return callbacks != null ? (Entry.Callback<E>) callbacks[action.ordinal()] : null;
+	}
+
+	private static void dispatchEventToListeners(DbAction action, Entry entry) {
+		dispatchEventToListeners(action, entry, 0);
+	}
+
+	/* package */ static void runDaoOperations(final List<DatabaseWriter.Operation> operations)
+	{
+		final Timer t = LOGV ? new Timer() : null;
+
+		synchronized(LOCK_DATA)
 		{
-			ex = e;
-			// handled at end of function
+			if(!sBackend.isOpen())
+			{
+				Log.w(TAG, "Database was not open; reopening!");
+				reload(RxDroid.getContext());
+			}
+
+			sBackend.write(operations);
 		}
-		catch(NoSuchMethodException e)
+
+		if(USE_CUSTOM_CACHE)
 		{
-			ex = e;
-			// handled at end of function
+			for(DatabaseWriter.Operation op : operations)
+			{
+				if(op.action == DbAction.CREATE)
+					onIdAssigned(op.entry);
+			}
 		}
-		/*finally
-		{
-			--sPendingDaoOperations;
-		}*/
 
-		throw new WrappedCheckedException("Failed to run DAO method " + methodName, ex);
+		RxDroid.notifyBackupDataChanged();
+
+		if(LOGV) Log.v(TAG, "runDaoOperations: " + operations.size() + " operations: " + t);
 	}
 
-	private static<T> List<T> queryForAll(Class<T> clazz)
+	@SuppressWarnings("unchecked")
+	private static <E extends Entry> void onIdAssigned(E entry)
 	{
-		if(sHelper == null)
+		getCache((Class<E>) entry.getClass()).onIdAssigned(entry);
+
+		// The drug's events were indexed before it had an ID
+		if(entry instanceof Drug)
+			getCaches().doseEventIndex.onDrugIdAssigned();
+	}
+
+	private static <T extends Entry> List<T> queryForAll(Class<T> clazz) {
+		return getBackend().loadAll(clazz);
+	}
+
+	private static StorageBackend getBackend()
+	{
+		if(sBackend == null)
 		{
 			Log.w(TAG, "Database not initialized - initializing it now...", new IllegalStateException("Trace"));
 			init();
 		}
 
-		try
-		{
-			return sHelper.getDao(clazz).queryForAll();
-		}
-		catch(SQLException e)
-		{
-			throw new DatabaseError(DatabaseError.E_GENERAL, e);
-		}
+		return sBackend;
 	}
 
-	private static synchronized void dispatchEventToListeners(String functionName, Entry entry, int flags)
+	private static void dispatchEventToListeners(final DbAction action, final Entry entry, final int flags)
 	{
 		if((flags & FLAG_DONT_NOTIFY_LISTENERS) != 0)
 			return;
 
-		sEventMgr.post(functionName, EVENT_HANDLER_ARG_TYPES, entry, flags);
+		sChangeListeners.post(entry, new EventDispatcher.Invoker<OnChangeListener>() {
+
+			@Override
+			public void invoke(OnChangeListener listener) {
+				action.dispatchTo(listener, entry, flags);
+			}
+		});
 	}
 
 	/**
@@ -621,7 +1187,32 @@ public final class Database
 		boolean matches(T t);
 	}
 
-	private Database() {}
+	private static final class Batch
+	{
+		int depth = 0;
 
-	private static final Class<?>[] EVENT_HANDLER_ARG_TYPES = { Entry.class, Integer.TYPE };
+		final List<DatabaseWriter.Operation> operations =
+				new ArrayList<DatabaseWriter.Operation>();
+
+		// The events to dispatch once the batch is done. Events for the same entry
+		// are merged just like queued DB operations are.
+		final List<DatabaseWriter.Operation> events =
+				new ArrayList<DatabaseWriter.Operation>();
+		final HashMap<DatabaseWriter.Key, DatabaseWriter.Operation> latestEvents =
+				new HashMap<DatabaseWriter.Key, DatabaseWriter.Operation>();
+
+		void addEvent(DbAction action, Entry entry)
+		{
+			final DatabaseWriter.Operation event = new DatabaseWriter.Operation(action, entry);
+			final DatabaseWriter.Operation latest = latestEvents.get(event.key());
+
+			if(latest == null || !latest.merge(action, entry))
+			{
+				events.add(event);
+				latestEvents.put(event.key(), event);
+			}
+		}
+	}
+
+	private Database() {}
 }
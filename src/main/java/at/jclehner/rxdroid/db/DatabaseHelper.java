@@ -55,9 +55,23 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper
 	private static final String TAG = DatabaseHelper.class.getSimpleName();
 	private static final boolean LOGV = false;
 
-	public static final int DB_VERSION = 60;
+	public static final int DB_VERSION = 63;
 	public static final String DB_NAME = "db.sqlite";
 
+	/**
+	 * Statements creating the secondary indexes.
+	 * <p>
+	 * Executed in {@link #onCreate(SQLiteDatabase, ConnectionSource)}, and when upgrading
+	 * to v63, which replaced the indexes introduced in v61.
+	 */
+	/* package */ static final String[] CREATE_INDEX_STATEMENTS = {
+		// used by Entries.findDoseEvents() and Entries.countDoseEvents()
+		"CREATE INDEX IF NOT EXISTS [dose_events_drug_epochDay_doseTime] " +
+				"ON [dose_events] ( [drug_id], [dateEpochDay], [doseTime] )",
+		// used by Database.deleteDoseEventsBefore()
+		"CREATE INDEX IF NOT EXISTS [dose_events_epochDay] ON [dose_events] ( [dateEpochDay] )"
+	};
+
 	public static class DatabaseError extends RuntimeException
 	{
 		private static final long serialVersionUID = 4326067582393937172L;
@@ -130,6 +144,9 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper
 		{
 			for(Class<?> clazz : Database.CLASSES)
 				TableUtils.createTableIfNotExists(cs, clazz);
+
+			for(String statement : CREATE_INDEX_STATEMENTS)
+				db.execSQL(statement);
 		}
 		catch(SQLException e)
 		{
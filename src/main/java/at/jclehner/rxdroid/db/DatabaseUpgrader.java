@@ -21,7 +21,9 @@
 
 package at.jclehner.rxdroid.db;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import com.j256.ormlite.support.ConnectionSource;
@@ -30,9 +32,13 @@ import com.j256.ormlite.table.TableUtils;
 
 import java.io.Closeable;
 import java.sql.SQLException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
 import java.util.zip.ZipException;
 
 import at.jclehner.rxdroid.Backup;
+import at.jclehner.rxdroid.Fraction;
 
 public class DatabaseUpgrader implements Closeable
 {
@@ -157,12 +163,174 @@ public class DatabaseUpgrader implements Closeable
 				);
 				break;
 
+			case 61:
+				execute("CREATE INDEX IF NOT EXISTS [dose_events_drug_date_doseTime] " +
+						"ON [dose_events] ( [drug_id], [date], [doseTime] )");
+				execute("CREATE INDEX IF NOT EXISTS [dose_events_date] ON [dose_events] ( [date] )");
+				break;
+
+			case 62:
+				// Fractions are now stored as packed integers (see FractionPersister). As
+				// SQLite can't parse fractions, the values are converted here. The old string
+				// columns are left in place.
+				packFractions("drugs", "currentSupply", "doseMorning", "doseNoon", "doseEvening", "doseNight");
+				packFractions("dose_events", "dose");
+				break;
+
+			case 63:
+				// Date-only columns are now stored as epoch-days (see EpochDayPersister). ORMLite
+				// stored dates as local time strings ("yyyy-MM-dd HH:mm:ss.SSSSSS"), so the
+				// epoch-day is simply the number of days between the string's date part and
+				// 1970-01-01. The old string columns are left in place.
+				addEpochDayColumn("dose_events", "date", "dateEpochDay");
+
+				for(String column : new String[] {
+						"repeatOrigin", "lastAutoDoseEventCreationDate", "lastScheduleUpdateDate",
+						"expirationDate", "scheduleEndDate" })
+				{
+					addEpochDayColumn("drugs", column, column + "EpochDay");
+				}
+
+				// Timestamps are stored as milliseconds since the epoch. As the string
+				// is in local time, it can't be converted by SQLite.
+				execute("ALTER TABLE [dose_events] ADD COLUMN [timestampMillis] BIGINT");
+				convertColumns("dose_events", new Converter() {
+
+					final SimpleDateFormat mFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSSSSS", Locale.US);
+
+					@Override
+					public Long convert(String value) throws ParseException {
+						return value != null ? mFormat.parse(value).getTime() : null;
+					}
+				}, "timestamp", "timestampMillis");
+
+				execute("DROP INDEX IF EXISTS [dose_events_drug_date_doseTime]");
+				execute("DROP INDEX IF EXISTS [dose_events_date]");
+
+				for(String statement : DatabaseHelper.CREATE_INDEX_STATEMENTS)
+					execute(statement);
+
+				break;
+
 			default:
 				throw new DatabaseHelper.DatabaseError(DatabaseHelper.DatabaseError.E_UPGRADE,
 						"Unsupported database version " + version);
 		}
 	}
 
+	/**
+	 * Converts a column's values when SQLite can't do it by itself.
+	 */
+	private interface Converter
+	{
+		/**
+		 * @return the converted value, or <code>null</code>.
+		 */
+		Long convert(String value) throws Exception;
+	}
+
+	private static final Converter FRACTION_CONVERTER = new Converter() {
+
+		@Override
+		public Long convert(String value)
+		{
+			if(value == null || value.length() == 0)
+				return 0L;
+
+			return Fraction.valueOf(value).toPackedLong();
+		}
+	};
+
+	/**
+	 * Adds a <code>[&lt;column&gt;Packed]</code> column for each of the specified
+	 * string columns, and fills it with the packed value of the fraction stored
+	 * in the string column.
+	 */
+	private void packFractions(String table, String... columns) throws SQLException
+	{
+		final String[] pairs = new String[2 * columns.length];
+
+		for(int i = 0; i != columns.length; ++i)
+		{
+			execute("ALTER TABLE [" + table + "] ADD COLUMN [" + columns[i] + "Packed] BIGINT DEFAULT 0");
+			pairs[2 * i] = columns[i];
+			pairs[2 * i + 1] = columns[i] + "Packed";
+		}
+
+		convertColumns(table, FRACTION_CONVERTER, pairs);
+	}
+
+	/**
+	 * Adds an integer column, and fills it with the epoch-day of the date
+	 * stored in the specified string column.
+	 */
+	private void addEpochDayColumn(String table, String column, String newColumn) throws SQLException
+	{
+		execute("ALTER TABLE [" + table + "] ADD COLUMN [" + newColumn + "] INTEGER");
+		execute("UPDATE [" + table + "] SET [" + newColumn + "]=" +
+				"CAST(julianday(substr([" + column + "], 1, 10)) - julianday('1970-01-01') AS INTEGER) " +
+				"WHERE [" + column + "] IS NOT NULL");
+	}
+
+	/**
+	 * Sets columns to the converted values of other columns, row by row.
+	 *
+	 * @param columns Pairs of source and destination column names.
+	 */
+	private void convertColumns(String table, Converter converter, String... columns) throws SQLException
+	{
+		final int count = columns.length / 2;
+		final StringBuilder select = new StringBuilder("SELECT [id]");
+		final StringBuilder update = new StringBuilder("UPDATE [" + table + "] SET ");
+
+		for(int i = 0; i != count; ++i)
+		{
+			select.append(", [" + columns[2 * i] + "]");
+			update.append((i != 0 ? ", " : "") + "[" + columns[2 * i + 1] + "]=?");
+		}
+
+		select.append(" FROM [" + table + "]");
+		update.append(" WHERE [id]=?");
+
+		final Cursor cursor = mDb.rawQuery(select.toString(), null);
+		final SQLiteStatement statement = mDb.compileStatement(update.toString());
+
+		try
+		{
+			while(cursor.moveToNext())
+			{
+				for(int i = 0; i != count; ++i)
+				{
+					final String value = cursor.getString(i + 1);
+					final Long converted;
+
+					try
+					{
+						converted = converter.convert(value);
+					}
+					catch(Exception e)
+					{
+						throw new SQLException("Invalid value in [" + table + "].[" + columns[2 * i] +
+								"] of id " + cursor.getLong(0) + ": " + value, e);
+					}
+
+					if(converted != null)
+						statement.bindLong(i + 1, converted);
+					else
+						statement.bindNull(i + 1);
+				}
+
+				statement.bindLong(count + 1, cursor.getLong(0));
+				statement.executeUpdateDelete();
+			}
+		}
+		finally
+		{
+			cursor.close();
+			statement.close();
+		}
+	}
+
 	private int execute(String statement) throws SQLException {
 		return mDc.executeStatement(statement, DatabaseConnection.DEFAULT_RESULT_FLAGS);
 	}
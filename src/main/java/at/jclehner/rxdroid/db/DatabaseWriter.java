@@ -0,0 +1,439 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+import at.jclehner.rxdroid.util.WrappedCheckedException;
+
+/**
+ * Single writer thread for persisting changes to the DB.
+ * <p>
+ * Operations are queued in a bounded FIFO queue and executed by one dedicated
+ * thread, in the order in which they were queued. Whenever the writer wakes up,
+ * it drains all pending operations (up to roughly {@link #MAX_BATCH_SIZE}) and hands
+ * them to {@link Database#runDaoOperations(List)}, which executes them in a single
+ * transaction. Operations queued together using {@link #enqueueAll(List)} are never
+ * split across transactions.
+ * <p>
+ * Operations on an entry that is still waiting in the queue are merged into the
+ * queued operation, so that only the entry's most recent state is written. To keep
+ * groups atomic, this only happens within the same group, or if both operations
+ * were queued on their own:
+ * <ul>
+ * <li>update after create or update: write the latest state once</li>
+ * <li>delete after update: delete only</li>
+ * <li>delete after create: nothing is written at all</li>
+ * </ul>
+ * Range deletions (see {@link Operation#deleteBefore(Class, Date)}) are never merged.
+ * <p>
+ * If the queue is full, {@link #enqueue(DbAction, Entry)} blocks until the writer
+ * has caught up.
+ * <p>
+ * If writing a batch fails, its groups are retried separately, and the groups
+ * that still fail are logged and dropped (see {@link #write(List, List)}).
+ * <p>
+ * Once the writer has been idle for {@link #IDLE_DELAY_MILLIS}, it calls
+ * {@link Database#onWriterIdle()}.
+ *
+ * @author Joseph Lehner
+ *
+ */
+final class DatabaseWriter implements Runnable
+{
+	private static final String TAG = DatabaseWriter.class.getSimpleName();
+
+	private static final int QUEUE_CAPACITY = 1024;
+	private static final int MAX_BATCH_SIZE = 256;
+	// Time to wait after the last batch before calling Database.onWriterIdle()
+	private static final long IDLE_DELAY_MILLIS = 2000;
+
+	static final class Operation
+	{
+		// Both may be changed while the operation is queued (see merge()). An
+		// action of null means that the operation has been cancelled.
+		DbAction action;
+		Entry entry;
+
+		// Only set for range deletions
+		final Class<? extends Entry> clazz;
+		final Date date;
+
+		private final Key mKey;
+		// The group this operation was queued with (see enqueueAll())
+		private List<Operation> mGroup;
+
+		Operation(DbAction action, Entry entry)
+		{
+			this.action = action;
+			this.entry = entry;
+			this.clazz = null;
+			this.date = null;
+			mKey = new Key(entry);
+		}
+
+		private Operation(DbAction action, Class<? extends Entry> clazz, Date date)
+		{
+			this.action = action;
+			this.entry = null;
+			this.clazz = clazz;
+			this.date = date;
+			mKey = null;
+		}
+
+		/**
+		 * Creates an operation that deletes all entries whose date is before the
+		 * specified date.
+		 */
+		static Operation deleteBefore(Class<? extends Entry> clazz, Date date) {
+			return new Operation(DbAction.DELETE, clazz, date);
+		}
+
+		Key key() {
+			return mKey;
+		}
+
+		/**
+		 * Merges a subsequent operation on the same entry into this one.
+		 *
+		 * @return <code>false</code> if the operations cannot be merged.
+		 */
+		boolean merge(DbAction newAction, Entry newEntry)
+		{
+			if(action == DbAction.DELETE || newAction == DbAction.CREATE)
+				return false;
+
+			if(newAction == DbAction.DELETE)
+			{
+				// Deleting an entry whose creation has not yet been written
+				// means we don't have to do anything at all.
+				action = action == DbAction.CREATE ? null : newAction;
+			}
+
+			// For an update, keep the original operation, as an update
+			// following a create must still be written as a create.
+			entry = newEntry;
+			return true;
+		}
+	}
+
+	/**
+	 * Identifies the entry an operation refers to.
+	 * <p>
+	 * Entries that have not been assigned an ID yet (i.e. those whose creation
+	 * is still queued) are identified by instance, all others by class and ID.
+	 */
+	static final class Key
+	{
+		private final Class<?> mClass;
+		private final int mId;
+		private final Entry mUnsavedEntry;
+
+		Key(Entry entry)
+		{
+			mClass = entry.getClass();
+			mId = entry.id;
+			mUnsavedEntry = entry.id < 0 ? entry : null;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(!(o instanceof Key))
+				return false;
+
+			final Key other = (Key) o;
+			return mClass == other.mClass && mId == other.mId && mUnsavedEntry == other.mUnsavedEntry;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			final int hash = mUnsavedEntry != null ? System.identityHashCode(mUnsavedEntry) : mId;
+			return 31 * mClass.hashCode() + hash;
+		}
+	}
+
+	private final BlockingQueue<List<Operation>> mQueue =
+			new LinkedBlockingQueue<List<Operation>>(QUEUE_CAPACITY);
+
+	// Incremented before an operation is queued, decremented once its
+	// batch has been committed.
+	private final AtomicInteger mPendingCount = new AtomicInteger();
+
+	// Operations that have been queued, but not yet taken by the writer
+	private final HashMap<Key, Operation> mQueuedOps = new HashMap<Key, Operation>();
+
+	private Thread mThread;
+
+	void enqueue(DbAction action, Entry entry) {
+		enqueue(new Operation(action, entry));
+	}
+
+	void enqueue(Operation op) {
+		enqueueAll(Collections.singletonList(op));
+	}
+
+	/**
+	 * Queues several operations, to be written in the same transaction.
+	 */
+	void enqueueAll(List<Operation> ops)
+	{
+		ensureStarted();
+
+		final List<Operation> group = new ArrayList<Operation>(ops.size());
+
+		synchronized(mQueuedOps)
+		{
+			for(Operation op : ops)
+			{
+				op.mGroup = group;
+
+				if(op.mKey == null)
+				{
+					group.add(op);
+					continue;
+				}
+
+				// Merging into an operation of another group would cause part of a
+				// group to be committed in a different transaction than the rest.
+				final Operation queued = mQueuedOps.get(op.mKey);
+				if(queued != null && isMergeable(queued, group, ops.size())
+						&& queued.merge(op.action, op.entry))
+					continue;
+
+				mQueuedOps.put(op.mKey, op);
+				group.add(op);
+			}
+		}
+
+		if(group.isEmpty())
+			return;
+
+		mPendingCount.addAndGet(group.size());
+
+		try
+		{
+			mQueue.put(group);
+		}
+		catch(InterruptedException e)
+		{
+			synchronized(mQueuedOps)
+			{
+				for(Operation op : group)
+				{
+					if(op.mKey != null)
+						mQueuedOps.remove(op.mKey);
+				}
+			}
+
+			mPendingCount.addAndGet(-group.size());
+			Thread.currentThread().interrupt();
+			throw new WrappedCheckedException("Interrupted while queueing " + group.size() + " operations", e);
+		}
+	}
+
+	private static boolean isMergeable(Operation queued, List<Operation> group, int groupSize) {
+		return queued.mGroup == group || (groupSize == 1 && queued.mGroup.size() == 1);
+	}
+
+	/**
+	 * Returns the number of operations that have not yet been committed.
+	 */
+	int getPendingCount() {
+		return mPendingCount.get();
+	}
+
+	@Override
+	public void run()
+	{
+		final List<List<Operation>> groups = new ArrayList<List<Operation>>();
+		final List<Operation> batch = new ArrayList<Operation>();
+		boolean isIdleCallbackDue = false;
+
+		while(true)
+		{
+			List<Operation> group;
+
+			try
+			{
+				if(isIdleCallbackDue)
+				{
+					group = mQueue.poll(IDLE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+					if(group == null)
+					{
+						isIdleCallbackDue = false;
+						onIdle();
+						continue;
+					}
+				}
+				else
+					group = mQueue.take();
+			}
+			catch(InterruptedException e)
+			{
+				Log.w(TAG, "Interrupted; " + mPendingCount.get() + " operations were not written");
+				return;
+			}
+
+			int count = 0;
+
+			do
+			{
+				groups.add(group);
+				count += group.size();
+			} while(count < MAX_BATCH_SIZE && (group = mQueue.poll()) != null);
+
+			try
+			{
+				for(List<Operation> g : groups)
+				{
+					removeFromQueuedOps(g);
+					batch.addAll(g);
+				}
+
+				if(!batch.isEmpty())
+					write(batch, groups);
+			}
+			finally
+			{
+				mPendingCount.addAndGet(-count);
+				groups.clear();
+				batch.clear();
+			}
+
+			isIdleCallbackDue = true;
+		}
+	}
+
+	/**
+	 * Writes a batch in a single transaction.
+	 * <p>
+	 * If that fails, the batch's groups are retried one by one, so that a
+	 * failing operation only causes its own group to be dropped, rather than
+	 * all unrelated operations in the same batch. The writer thread is kept
+	 * alive in any case; otherwise, all subsequent changes would only be kept
+	 * in memory, and queueing would eventually block forever.
+	 */
+	private static void write(List<Operation> batch, List<List<Operation>> groups)
+	{
+		try
+		{
+			Database.runDaoOperations(batch);
+			return;
+		}
+		catch(RuntimeException e)
+		{
+			resetUnsavedIds(batch);
+
+			if(groups.size() == 1)
+			{
+				Log.e(TAG, "Dropping " + batch.size() + " operations", e);
+				return;
+			}
+
+			Log.w(TAG, "Failed to write " + batch.size() + " operations; retrying " +
+					groups.size() + " groups separately", e);
+		}
+
+		for(List<Operation> group : groups)
+		{
+			if(group.isEmpty())
+				continue;
+
+			try
+			{
+				Database.runDaoOperations(group);
+			}
+			catch(RuntimeException e)
+			{
+				resetUnsavedIds(group);
+				Log.e(TAG, "Dropping " + group.size() + " operations, starting with " +
+						group.get(0).action + " " + group.get(0).entry, e);
+			}
+		}
+	}
+
+	/**
+	 * Undoes the IDs assigned by creations that were rolled back.
+	 */
+	private static void resetUnsavedIds(List<Operation> ops)
+	{
+		for(Operation op : ops)
+		{
+			if(op.action == DbAction.CREATE && op.entry != null)
+				op.entry.id = -1;
+		}
+	}
+
+	private void onIdle()
+	{
+		try
+		{
+			Database.onWriterIdle();
+		}
+		catch(RuntimeException e)
+		{
+			Log.w(TAG, "onIdle", e);
+		}
+	}
+
+	/**
+	 * Prevents further merging into the specified operations, and removes
+	 * all cancelled operations from the list.
+	 */
+	private void removeFromQueuedOps(List<Operation> ops)
+	{
+		synchronized(mQueuedOps)
+		{
+			final Iterator<Operation> i = ops.iterator();
+			while(i.hasNext())
+			{
+				final Operation op = i.next();
+				if(op.mKey != null && mQueuedOps.get(op.mKey) == op)
+					mQueuedOps.remove(op.mKey);
+
+				if(op.action == null)
+					i.remove();
+			}
+		}
+	}
+
+	private synchronized void ensureStarted()
+	{
+		if(mThread == null)
+		{
+			mThread = new Thread(this, TAG);
+			mThread.start();
+		}
+	}
+}
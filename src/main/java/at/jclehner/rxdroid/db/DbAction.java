@@ -0,0 +1,83 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.sql.SQLException;
+
+import com.j256.ormlite.dao.Dao;
+
+import at.jclehner.rxdroid.db.Database.OnChangeListener;
+
+/**
+ * The operations that can be performed on an entry.
+ *
+ * @author Joseph Lehner
+ *
+ */
+/* package */ enum DbAction
+{
+	CREATE
+	{
+		@Override
+		<E> void runDaoMethod(Dao<E, Integer> dao, E entry) throws SQLException {
+			dao.create(entry);
+		}
+
+		@Override
+		void dispatchTo(OnChangeListener listener, Entry entry, int flags) {
+			listener.onEntryCreated(entry, flags);
+		}
+	},
+
+	UPDATE
+	{
+		@Override
+		<E> void runDaoMethod(Dao<E, Integer> dao, E entry) throws SQLException {
+			dao.update(entry);
+		}
+
+		@Override
+		void dispatchTo(OnChangeListener listener, Entry entry, int flags) {
+			listener.onEntryUpdated(entry, flags);
+		}
+	},
+
+	DELETE
+	{
+		@Override
+		<E> void runDaoMethod(Dao<E, Integer> dao, E entry) throws SQLException {
+			dao.delete(entry);
+		}
+
+		@Override
+		void dispatchTo(OnChangeListener listener, Entry entry, int flags) {
+			listener.onEntryDeleted(entry, flags);
+		}
+	};
+
+	abstract <E> void runDaoMethod(Dao<E, Integer> dao, E entry) throws SQLException;
+
+	/**
+	 * Calls the {@link OnChangeListener} callback corresponding to this action.
+	 */
+	abstract void dispatchTo(OnChangeListener listener, Entry entry, int flags);
+}
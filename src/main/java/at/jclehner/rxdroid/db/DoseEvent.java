@@ -21,6 +21,7 @@
 
 package at.jclehner.rxdroid.db;
 
+import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.Date;
 
@@ -29,6 +30,7 @@ import at.jclehner.rxdroid.util.DateTime;
 import at.jclehner.rxdroid.util.Hasher;
 import at.jclehner.rxdroid.util.Util;
 
+import com.j256.ormlite.field.DataType;
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 
@@ -46,8 +48,11 @@ import com.j256.ormlite.table.DatabaseTable;
  * </ul>
  *
  * <sup>*</sup>) Consider a dose that should be taken at night. If the user takes that dose
- * after midnight, the {@link #date} field will contain the date <em>before</em> midnight,
+ * after midnight, the {@link #epochDay} field will contain the date <em>before</em> midnight,
  * while the {@link #timestamp} will be set to the actual time.
+ * <p>
+ * The date is stored as an epoch-day (see {@link DateTime#toEpochDay(Date)}), the
+ * timestamp in milliseconds since the epoch.
  *
  * @see Drug
  *
@@ -57,30 +62,35 @@ import com.j256.ormlite.table.DatabaseTable;
 @DatabaseTable(tableName = "dose_events")
 public class DoseEvent extends Entry
 {
+	/* package */ static final String COLUMN_EPOCH_DAY = "dateEpochDay";
+
 	@DatabaseField(foreign = true)
 	private Drug drug;
 
-	@DatabaseField
-	private java.util.Date date;
+	@DatabaseField(columnName = COLUMN_EPOCH_DAY)
+	private int epochDay;
 
-	@DatabaseField
+	@DatabaseField(columnName = "timestampMillis", dataType = DataType.DATE_LONG)
 	private java.util.Date timestamp;
 
 	@DatabaseField
 	private int doseTime;
 
-	@DatabaseField(persisterClass = FractionPersister.class)
+	@DatabaseField(columnName = "dosePacked", persisterClass = FractionPersister.class)
 	private Fraction dose;
 
 	@DatabaseField
 	private boolean wasAutoCreated = false;
 
+	// Created on demand from epochDay
+	private transient Date mDate;
+
 	public DoseEvent() {}
 
 	public DoseEvent(Drug drug, Date date, int doseTime, Fraction dose)
 	{
 		this.drug = drug;
-		this.date = date;
+		this.epochDay = DateTime.toEpochDay(date);
 		this.timestamp = new Timestamp(System.currentTimeMillis());
 		this.doseTime = doseTime;
 		this.dose = dose;
@@ -112,8 +122,23 @@ public class DoseEvent extends Entry
 		this.dose = dose;
 	}
 
-	public Date getDate() {
-		return date;
+	public Date getDate()
+	{
+		// Several threads might get here at the same time, but they'll
+		// all create identical dates.
+		if(mDate == null)
+			mDate = DateTime.fromEpochDay(epochDay);
+
+		return mDate;
+	}
+
+	/**
+	 * Returns the event's date, as days since 1970-01-01.
+	 *
+	 * @see DateTime#toEpochDay(Date)
+	 */
+	public int getEpochDay() {
+		return epochDay;
 	}
 
 	public Date getTimestamp() {
@@ -138,7 +163,7 @@ public class DoseEvent extends Entry
 		final Hasher hasher = Hasher.getInstance();
 
 		hasher.hash(drug);
-		hasher.hash(date);
+		hasher.hash(epochDay);
 		hasher.hash(timestamp);
 		hasher.hash(doseTime);
 		hasher.hash(dose);
@@ -160,7 +185,7 @@ public class DoseEvent extends Entry
 		if(!Util.equalsIgnoresNull(this.timestamp, other.timestamp))
 			return false;
 
-		if(!this.date.equals(other.date))
+		if(this.epochDay != other.epochDay)
 			return false;
 
 		/*if(this.getDrugId() != other.getDrugId())
@@ -178,7 +203,36 @@ public class DoseEvent extends Entry
 		final Drug drug = getDrug();
 		final String drugName = drug == null ? "<deleted>" : drug.getName();
 
-		return drugName + ": " + date + " " + Entries.getDoseTimeString(doseTime) + ", " + dose;
+		return drugName + ": " + getDate() + " " + Entries.getDoseTimeString(doseTime) + ", " + dose;
+	}
+
+	/* package */ void writeTo(CacheSnapshot.Writer out) throws IOException
+	{
+		out.writeInt(id);
+		out.writeInt(drug.id);
+		out.writeInt(epochDay);
+		out.writeDate(timestamp);
+		out.writeInt(doseTime);
+		out.writeFraction(dose);
+		out.writeBoolean(wasAutoCreated);
+	}
+
+	/* package */ static DoseEvent readFrom(CacheSnapshot.Reader in)
+	{
+		final DoseEvent event = new DoseEvent();
+		event.id = in.readInt();
+
+		// Like ORMLite does for foreign fields, only the ID is set
+		event.drug = new Drug();
+		event.drug.id = in.readInt();
+
+		event.epochDay = in.readInt();
+		event.timestamp = in.readDate();
+		event.doseTime = in.readInt();
+		event.dose = in.readFraction();
+		event.wasAutoCreated = in.readBoolean();
+
+		return event;
 	}
 
 	/* package */ static boolean has(DoseEvent intake, Drug drug, Date date, Integer doseTime)
@@ -189,7 +243,7 @@ public class DoseEvent extends Entry
 		if(doseTime != null && doseTime != intake.doseTime)
 			return false;
 
-		if(date != null && !DateTime.equalsDate(date, intake.date))
+		if(date != null && DateTime.toEpochDay(date) != intake.epochDay)
 			return false;
 
 		return true;
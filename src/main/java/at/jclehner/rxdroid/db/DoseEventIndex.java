@@ -0,0 +1,449 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import at.jclehner.rxdroid.util.DateTime;
+import at.jclehner.rxdroid.util.IntHashMap;
+
+/**
+ * Index of cached DoseEvents, keyed by drug ID, date and dose-time.
+ * <p>
+ * Events are grouped by drug ID, then by their date's epoch-day (see
+ * {@link DateTime#toEpochDay(Date)}), then by dose-time. Looking up the
+ * events of a given drug on a given date thus requires two hash lookups
+ * instead of walking the whole DoseEvent cache.
+ * <p>
+ * When querying all events of a drug, these are returned ordered by date and
+ * dose-time.
+ * <p>
+ * Additionally, all days are kept ordered by epoch-day, so that the events
+ * preceding a given date can be found without looking at any of the newer
+ * ones (see {@link #findBefore(int, List)}).
+ * <p>
+ * Events of a drug that has yet to be written are re-filed once the drug has
+ * been assigned its ID (see {@link #onDrugIdAssigned()}).
+ * <p>
+ * Lookups only take a read lock, and may thus run concurrently.
+ *
+ * @author Joseph Lehner
+ *
+ */
+final class DoseEventIndex implements EntryCache.Index<DoseEvent>
+{
+	private static final class Day
+	{
+		@SuppressWarnings("unchecked")
+		final List<DoseEvent>[] byDoseTime = new List[Schedule.DOSE_TIME_COUNT];
+		int size = 0;
+	}
+
+	// Entry.id of entries that have yet to be written
+	private static final int UNASSIGNED_ID = -1;
+
+	private final IntHashMap<IntHashMap<Day>> mByDrug = new IntHashMap<IntHashMap<Day>>();
+	// All drugs' days, by epoch-day
+	private final TreeMap<Integer, List<Day>> mByEpochDay = new TreeMap<Integer, List<Day>>();
+
+	// Histories of drugs whose events haven't changed since, by drug ID
+	private final IntHashMap<DoseHistory> mHistories = new IntHashMap<DoseHistory>();
+
+	private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+
+	@Override
+	public void add(DoseEvent event)
+	{
+		mLock.writeLock().lock();
+
+		try
+		{
+			addLocked(event.getDrugId(), event);
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void remove(DoseEvent event)
+	{
+		mLock.writeLock().lock();
+
+		try
+		{
+			// The event's drug may have been assigned an ID since it was
+			// added, and the event not yet re-filed.
+			if(!removeLocked(event.getDrugId(), event))
+				removeLocked(UNASSIGNED_ID, event);
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Re-files the events of drugs that have been assigned an ID.
+	 * <p>
+	 * Events of a drug that has yet to be written are filed under the drug's
+	 * unassigned ID. Must thus be called once the DB has assigned a drug's ID,
+	 * as the events would otherwise never be found.
+	 */
+	void onDrugIdAssigned()
+	{
+		mLock.writeLock().lock();
+
+		try
+		{
+			final IntHashMap<Day> days = mByDrug.get(UNASSIGNED_ID);
+			if(days == null)
+				return;
+
+			final List<DoseEvent> events = new ArrayList<DoseEvent>();
+
+			for(int epochDay : days.keys())
+				addEvents(days.get(epochDay), null, events);
+
+			for(DoseEvent event : events)
+			{
+				final int drugId = event.getDrugId();
+				if(drugId != UNASSIGNED_ID)
+				{
+					removeLocked(UNASSIGNED_ID, event);
+					addLocked(drugId, event);
+				}
+			}
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds all events matching the specified criteria to <code>outEvents</code>.
+	 *
+	 * @param epochDay The events' date, as an epoch-day. Can be <code>null</code>.
+	 * @param doseTime The events' dose-time. Can be <code>null</code>.
+	 */
+	void find(int drugId, Integer epochDay, Integer doseTime, List<DoseEvent> outEvents)
+	{
+		mLock.readLock().lock();
+
+		try
+		{
+			final IntHashMap<Day> days = mByDrug.get(drugId);
+			if(days == null)
+				return;
+
+			if(epochDay != null)
+				addEvents(days.get(epochDay), doseTime, outEvents);
+			else
+			{
+				final int[] epochDays = days.keys();
+				Arrays.sort(epochDays);
+
+				for(int day : epochDays)
+					addEvents(days.get(day), doseTime, outEvents);
+			}
+		}
+		finally
+		{
+			mLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a column-oriented copy of the specified drug's events.
+	 * <p>
+	 * A drug's history is kept until its events change, so only the histories
+	 * of drugs whose events have actually changed are ever rebuilt.
+	 */
+	DoseHistory getHistory(int drugId)
+	{
+		mLock.readLock().lock();
+
+		try
+		{
+			final DoseHistory history = mHistories.get(drugId);
+			if(history != null)
+				return history;
+		}
+		finally
+		{
+			mLock.readLock().unlock();
+		}
+
+		mLock.writeLock().lock();
+
+		try
+		{
+			DoseHistory history = mHistories.get(drugId);
+			if(history == null)
+			{
+				final List<DoseEvent> events = new ArrayList<DoseEvent>();
+				find(drugId, null, null, events);
+
+				history = new DoseHistory(events);
+				mHistories.put(drugId, history);
+			}
+
+			return history;
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Counts all events matching the specified criteria.
+	 *
+	 * @see #find(int, Integer, Integer, List)
+	 */
+	int count(int drugId, Integer epochDay, Integer doseTime)
+	{
+		mLock.readLock().lock();
+
+		try
+		{
+			final IntHashMap<Day> days = mByDrug.get(drugId);
+			if(days == null)
+				return 0;
+
+			if(epochDay != null)
+				return countEvents(days.get(epochDay), doseTime);
+
+			int count = 0;
+
+			for(int day : days.keys())
+				count += countEvents(days.get(day), doseTime);
+
+			return count;
+		}
+		finally
+		{
+			mLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds all events dated before the specified epoch-day to <code>outEvents</code>.
+	 * <p>
+	 * Only the days preceding <code>epochDay</code> are visited.
+	 */
+	void findBefore(int epochDay, List<DoseEvent> outEvents)
+	{
+		mLock.readLock().lock();
+
+		try
+		{
+			for(List<Day> allDays : mByEpochDay.headMap(epochDay).values())
+			{
+				for(Day day : allDays)
+					addEvents(day, null, outEvents);
+			}
+		}
+		finally
+		{
+			mLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds all events within the specified range of epoch-days to <code>outEvents</code>.
+	 *
+	 * @param from Inclusive lower bound, or <code>null</code>.
+	 * @param to Exclusive upper bound, or <code>null</code>.
+	 */
+	void findBetween(Integer from, Integer to, List<DoseEvent> outEvents)
+	{
+		mLock.readLock().lock();
+
+		try
+		{
+			NavigableMap<Integer, List<Day>> days = mByEpochDay;
+
+			if(from != null)
+				days = days.tailMap(from, true);
+			if(to != null)
+				days = days.headMap(to, false);
+
+			for(List<Day> allDays : days.values())
+			{
+				for(Day day : allDays)
+					addEvents(day, null, outEvents);
+			}
+		}
+		finally
+		{
+			mLock.readLock().unlock();
+		}
+	}
+
+	// Must hold the write lock
+	private void addLocked(int drugId, DoseEvent event)
+	{
+		mHistories.remove(drugId);
+
+		IntHashMap<Day> days = mByDrug.get(drugId);
+		if(days == null)
+		{
+			days = new IntHashMap<Day>();
+			mByDrug.put(drugId, days);
+		}
+
+		final int epochDay = event.getEpochDay();
+
+		Day day = days.get(epochDay);
+		if(day == null)
+		{
+			day = new Day();
+			days.put(epochDay, day);
+
+			List<Day> allDays = mByEpochDay.get(epochDay);
+			if(allDays == null)
+			{
+				allDays = new ArrayList<Day>(1);
+				mByEpochDay.put(epochDay, allDays);
+			}
+
+			allDays.add(day);
+		}
+
+		final int doseTime = checkDoseTime(event.getDoseTime());
+
+		List<DoseEvent> events = day.byDoseTime[doseTime];
+		if(events == null)
+			events = day.byDoseTime[doseTime] = new ArrayList<DoseEvent>(1);
+
+		events.add(event);
+		++day.size;
+	}
+
+	// Must hold the write lock. Returns true if the event was found.
+	private boolean removeLocked(int drugId, DoseEvent event)
+	{
+		mHistories.remove(drugId);
+
+		final IntHashMap<Day> days = mByDrug.get(drugId);
+		if(days == null)
+			return false;
+
+		final int epochDay = event.getEpochDay();
+		final Day day = days.get(epochDay);
+		if(day == null)
+			return false;
+
+		final List<DoseEvent> events = day.byDoseTime[checkDoseTime(event.getDoseTime())];
+		if(events == null)
+			return false;
+
+		for(int i = 0; i != events.size(); ++i)
+		{
+			if(events.get(i) == event)
+			{
+				events.remove(i);
+
+				if(--day.size == 0)
+				{
+					days.remove(epochDay);
+					if(days.isEmpty())
+						mByDrug.remove(drugId);
+
+					removeDay(epochDay, day);
+				}
+
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void removeDay(int epochDay, Day day)
+	{
+		final List<Day> allDays = mByEpochDay.get(epochDay);
+		if(allDays == null)
+			return;
+
+		for(int i = 0; i != allDays.size(); ++i)
+		{
+			if(allDays.get(i) == day)
+			{
+				allDays.remove(i);
+				break;
+			}
+		}
+
+		if(allDays.isEmpty())
+			mByEpochDay.remove(epochDay);
+	}
+
+	private static void addEvents(Day day, Integer doseTime, List<DoseEvent> outEvents)
+	{
+		if(day == null)
+			return;
+
+		if(doseTime != null)
+		{
+			final List<DoseEvent> events = day.byDoseTime[checkDoseTime(doseTime)];
+			if(events != null)
+				outEvents.addAll(events);
+		}
+		else
+		{
+			for(List<DoseEvent> events : day.byDoseTime)
+			{
+				if(events != null)
+					outEvents.addAll(events);
+			}
+		}
+	}
+
+	private static int countEvents(Day day, Integer doseTime)
+	{
+		if(day == null)
+			return 0;
+		else if(doseTime == null)
+			return day.size;
+
+		final List<DoseEvent> events = day.byDoseTime[checkDoseTime(doseTime)];
+		return events != null ? events.size() : 0;
+	}
+
+	private static int checkDoseTime(int doseTime)
+	{
+		if(doseTime < 0 || doseTime >= Schedule.DOSE_TIME_COUNT)
+			throw new IllegalArgumentException("doseTime=" + doseTime);
+
+		return doseTime;
+	}
+}
@@ -0,0 +1,220 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import at.jclehner.rxdroid.Fraction;
+
+/**
+ * Immutable, column-oriented copy of a drug's DoseEvents.
+ * <p>
+ * Events are kept in parallel arrays of primitives, ordered by date and
+ * dose-time, so that an event takes up 22 bytes. Events within a range of
+ * dates are found using a binary search (see {@link #range(int, int)}), and
+ * scanning them only touches the arrays that are actually of interest.
+ * <p>
+ * Obtained using {@link Database#getDoseHistory(int)}. A drug's history is
+ * kept until that drug's events change, so changes to the events of other
+ * drugs never cause it to be rebuilt.
+ *
+ * @author Joseph Lehner
+ *
+ */
+public final class DoseHistory
+{
+	/**
+	 * Returned by {@link Range#getTimestamp(int)} if an event has no timestamp.
+	 */
+	public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+	/**
+	 * The order of events within a history.
+	 */
+	/* package */ static final Comparator<DoseEvent> ORDER = new Comparator<DoseEvent>() {
+
+		@Override
+		public int compare(DoseEvent lhs, DoseEvent rhs)
+		{
+			if(lhs.getEpochDay() != rhs.getEpochDay())
+				return lhs.getEpochDay() < rhs.getEpochDay() ? -1 : 1;
+
+			return lhs.getDoseTime() - rhs.getDoseTime();
+		}
+	};
+
+	private static final byte FLAG_AUTO_CREATED = 1;
+
+	/**
+	 * A view of a contiguous range of events.
+	 * <p>
+	 * Positions passed to the accessors are relative to the start of the range.
+	 */
+	public final class Range
+	{
+		private final int mStart;
+		private final int mEnd;
+
+		private Range(int start, int end)
+		{
+			mStart = start;
+			mEnd = end;
+		}
+
+		public int size() {
+			return mEnd - mStart;
+		}
+
+		public boolean isEmpty() {
+			return mEnd == mStart;
+		}
+
+		public int getEpochDay(int i) {
+			return mEpochDays[checkIndex(i)];
+		}
+
+		public int getDoseTime(int i) {
+			return mDoseTimes[checkIndex(i)];
+		}
+
+		public Fraction getDose(int i) {
+			return Fraction.fromPackedLong(mDoses[checkIndex(i)]);
+		}
+
+		/**
+		 * Returns the event's timestamp in milliseconds, or {@link DoseHistory#NO_TIMESTAMP}.
+		 */
+		public long getTimestamp(int i) {
+			return mTimestamps[checkIndex(i)];
+		}
+
+		public boolean wasAutoCreated(int i) {
+			return (mFlags[checkIndex(i)] & FLAG_AUTO_CREATED) != 0;
+		}
+
+		/**
+		 * Returns <code>true</code> if the range contains an event on the specified
+		 * day and dose-time.
+		 */
+		public boolean contains(int epochDay, int doseTime) {
+			return count(epochDay, doseTime) != 0;
+		}
+
+		/**
+		 * Counts the events on the specified day and dose-time.
+		 */
+		public int count(int epochDay, int doseTime)
+		{
+			int count = 0;
+
+			for(int i = lowerBound(mStart, mEnd, epochDay); i != mEnd && mEpochDays[i] == epochDay; ++i)
+			{
+				if(mDoseTimes[i] == doseTime)
+					++count;
+			}
+
+			return count;
+		}
+
+		private int checkIndex(int i)
+		{
+			if(i < 0 || i >= size())
+				throw new IndexOutOfBoundsException("index=" + i + ", size=" + size());
+
+			return mStart + i;
+		}
+	}
+
+	private final int[] mEpochDays;
+	private final byte[] mDoseTimes;
+	private final long[] mDoses;
+	private final long[] mTimestamps;
+	private final byte[] mFlags;
+
+	/**
+	 * @param events All events of a drug, ordered by date and dose-time.
+	 */
+	/* package */ DoseHistory(List<DoseEvent> events)
+	{
+		final int size = events.size();
+
+		mEpochDays = new int[size];
+		mDoseTimes = new byte[size];
+		mDoses = new long[size];
+		mTimestamps = new long[size];
+		mFlags = new byte[size];
+
+		for(int i = 0; i != size; ++i)
+		{
+			final DoseEvent event = events.get(i);
+			final Fraction dose = event.getDose();
+			final Date timestamp = event.getTimestamp();
+
+			mEpochDays[i] = event.getEpochDay();
+			mDoseTimes[i] = (byte) event.getDoseTime();
+			mDoses[i] = dose != null ? dose.toPackedLong() : 0;
+			mTimestamps[i] = timestamp != null ? timestamp.getTime() : NO_TIMESTAMP;
+			mFlags[i] = event.wasAutoCreated() ? FLAG_AUTO_CREATED : 0;
+		}
+	}
+
+	public int size() {
+		return mEpochDays.length;
+	}
+
+	/**
+	 * Returns all events.
+	 */
+	public Range range() {
+		return new Range(0, mEpochDays.length);
+	}
+
+	/**
+	 * Returns the events within a range of epoch-days.
+	 *
+	 * @param fromDay Inclusive lower bound.
+	 * @param toDay Exclusive upper bound.
+	 */
+	public Range range(int fromDay, int toDay)
+	{
+		final int start = lowerBound(0, mEpochDays.length, fromDay);
+		final int end = lowerBound(start, mEpochDays.length, toDay);
+		return new Range(start, end);
+	}
+
+	// Returns the position of the first event in [from, to) dated on or after epochDay
+	private int lowerBound(int from, int to, int epochDay)
+	{
+		while(from < to)
+		{
+			final int mid = (from + to) >>> 1;
+			if(mEpochDays[mid] < epochDay)
+				from = mid + 1;
+			else
+				to = mid;
+		}
+
+		return from;
+	}
+}
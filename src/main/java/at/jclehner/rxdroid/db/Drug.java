@@ -21,6 +21,7 @@
 
 package at.jclehner.rxdroid.db;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -140,6 +141,14 @@ public class Drug extends Entry implements Comparable<Drug>
 	public static final int REPEATARG_DAY_SAT = 1 << 5;
 	public static final int REPEATARG_DAY_SUN = 1 << 6;
 
+	/**
+	 * Returned by the epoch-day accessors if the respective date is not set.
+	 * <p>
+	 * As this value is less than any valid epoch-day, an unset date compares
+	 * as being before any other date.
+	 */
+	public static final int NO_EPOCH_DAY = Integer.MIN_VALUE;
+
 	@DatabaseField(unique = true)
 	private String name;
 
@@ -158,19 +167,19 @@ public class Drug extends Entry implements Comparable<Drug>
 	@DatabaseField
 	private int refillSize;
 
-	@DatabaseField(persisterClass = FractionPersister.class)
+	@DatabaseField(columnName = "currentSupplyPacked", persisterClass = FractionPersister.class)
 	private Fraction currentSupply = Fraction.ZERO;
 
-	@DatabaseField(persisterClass = FractionPersister.class)
+	@DatabaseField(columnName = "doseMorningPacked", persisterClass = FractionPersister.class)
 	private Fraction doseMorning = Fraction.ZERO;
 
-	@DatabaseField(persisterClass = FractionPersister.class)
+	@DatabaseField(columnName = "doseNoonPacked", persisterClass = FractionPersister.class)
 	private Fraction doseNoon = Fraction.ZERO;
 
-	@DatabaseField(persisterClass = FractionPersister.class)
+	@DatabaseField(columnName = "doseEveningPacked", persisterClass = FractionPersister.class)
 	private Fraction doseEvening = Fraction.ZERO;
 
-	@DatabaseField(persisterClass = FractionPersister.class)
+	@DatabaseField(columnName = "doseNightPacked", persisterClass = FractionPersister.class)
 	private Fraction doseNight = Fraction.ZERO;
 
 	@DatabaseField
@@ -180,16 +189,16 @@ public class Drug extends Entry implements Comparable<Drug>
 	@DatabaseField
 	private long repeatArg = 0;
 
-	@DatabaseField
+	@DatabaseField(columnName = "repeatOriginEpochDay", persisterClass = EpochDayPersister.class)
 	private Date repeatOrigin;
 
 	@DatabaseField
 	private boolean hasAutoDoseEvents = false;
 
-	@DatabaseField
+	@DatabaseField(columnName = "lastAutoDoseEventCreationDateEpochDay", persisterClass = EpochDayPersister.class)
 	private Date lastAutoDoseEventCreationDate;
 
-	@DatabaseField
+	@DatabaseField(columnName = "lastScheduleUpdateDateEpochDay", persisterClass = EpochDayPersister.class)
 	private Date lastScheduleUpdateDate;
 
 	@DatabaseField
@@ -197,11 +206,11 @@ public class Drug extends Entry implements Comparable<Drug>
 
 	private ForeignCollection<Schedule> foreignSchedules;
 
-	@DatabaseField
+	@DatabaseField(columnName = "expirationDateEpochDay", persisterClass = EpochDayPersister.class)
 	private Date expirationDate;
 
 	// this is the last date on which a dose is scheduled
-	@DatabaseField
+	@DatabaseField(columnName = "scheduleEndDateEpochDay", persisterClass = EpochDayPersister.class)
 	private Date scheduleEndDate;
 
 	@DatabaseField
@@ -328,6 +337,14 @@ public class Drug extends Entry implements Comparable<Drug>
 		return repeatOrigin;
 	}
 
+	/**
+	 * @return the repeat origin as an epoch-day, or {@link #NO_EPOCH_DAY}.
+	 * @see DateTime#toEpochDay(Date)
+	 */
+	public int getRepeatOriginEpochDay() {
+		return toEpochDay(repeatOrigin);
+	}
+
 	public void setHasAutoDoseEvents(boolean autoDoseEvents)
 	{
 		if(this.hasAutoDoseEvents == autoDoseEvents)
@@ -605,10 +622,26 @@ public class Drug extends Entry implements Comparable<Drug>
 		this.lastAutoDoseEventCreationDate = lastAutoDoseEventCreationDate;
 	}
 
+	/**
+	 * @return the last auto-dose event creation date as an epoch-day, or {@link #NO_EPOCH_DAY}.
+	 * @see DateTime#toEpochDay(Date)
+	 */
+	public int getLastAutoDoseEventCreationEpochDay() {
+		return toEpochDay(lastAutoDoseEventCreationDate);
+	}
+
 	public Date getLastScheduleUpdateDate() {
 		return lastScheduleUpdateDate;
 	}
 
+	/**
+	 * @return the last schedule update date as an epoch-day, or {@link #NO_EPOCH_DAY}.
+	 * @see DateTime#toEpochDay(Date)
+	 */
+	public int getLastScheduleUpdateEpochDay() {
+		return toEpochDay(lastScheduleUpdateDate);
+	}
+
 	public void setLastScheduleUpdateDate(Date date) {
 		lastScheduleUpdateDate = date;
 	}
@@ -746,21 +779,77 @@ public class Drug extends Entry implements Comparable<Drug>
 		return 0;
 	}
 
+	/* package */ void writeTo(CacheSnapshot.Writer out) throws IOException
+	{
+		out.writeInt(id);
+		out.writeString(name);
+		out.writeInt(patient != null ? patient.id : -1);
+		out.writeInt(icon);
+		out.writeBoolean(active);
+		out.writeInt(refillSize);
+		out.writeFraction(currentSupply);
+		out.writeFraction(doseMorning);
+		out.writeFraction(doseNoon);
+		out.writeFraction(doseEvening);
+		out.writeFraction(doseNight);
+		out.writeInt(repeatMode);
+		out.writeLong(repeatArg);
+		out.writeDate(repeatOrigin);
+		out.writeBoolean(hasAutoDoseEvents);
+		out.writeDate(lastAutoDoseEventCreationDate);
+		out.writeDate(lastScheduleUpdateDate);
+		out.writeInt(sortRank);
+		out.writeDate(expirationDate);
+		out.writeDate(scheduleEndDate);
+		out.writeBoolean(asNeeded);
+		out.writeString(comment);
+	}
+
+	/* package */ static Drug readFrom(CacheSnapshot.Reader in)
+	{
+		final Drug drug = new Drug();
+		drug.id = in.readInt();
+		drug.name = in.readString();
+
+		final int patientId = in.readInt();
+		if(patientId != -1)
+		{
+			// Like ORMLite does for foreign fields, only the ID is set
+			drug.patient = new Patient();
+			drug.patient.id = patientId;
+		}
+
+		drug.icon = in.readInt();
+		drug.active = in.readBoolean();
+		drug.refillSize = in.readInt();
+		drug.currentSupply = in.readFraction();
+		drug.doseMorning = in.readFraction();
+		drug.doseNoon = in.readFraction();
+		drug.doseEvening = in.readFraction();
+		drug.doseNight = in.readFraction();
+		drug.repeatMode = in.readInt();
+		drug.repeatArg = in.readLong();
+		drug.repeatOrigin = in.readDate();
+		drug.hasAutoDoseEvents = in.readBoolean();
+		drug.lastAutoDoseEventCreationDate = in.readDate();
+		drug.lastScheduleUpdateDate = in.readDate();
+		drug.sortRank = in.readInt();
+		drug.expirationDate = in.readDate();
+		drug.scheduleEndDate = in.readDate();
+		drug.asNeeded = in.readBoolean();
+		drug.comment = in.readString();
+
+		return drug;
+	}
+
 	/**
 	 * Returns the drug with the specified id (unchecked).
 	 *
 	 * @param drugId the id to search for.
 	 * @return The drug or <code>null</code> if it doesn't exist.
 	 */
-	public static Drug find(int drugId)
-	{
-		for(Drug drug : Database.getCached(Drug.class))
-		{
-			if(drug.getId() == drugId)
-				return drug;
-		}
-
-		return null;
+	public static Drug find(int drugId) {
+		return Database.find(Drug.class, drugId);
 	}
 
 	/**
@@ -831,6 +920,10 @@ public class Drug extends Entry implements Comparable<Drug>
 		return (repeatArg & 1 << weekday) != 0;
 	}
 
+	private static int toEpochDay(Date date) {
+		return date != null ? DateTime.toEpochDay(date) : NO_EPOCH_DAY;
+	}
+
 	private final transient LazyValue<List<Schedule>> mSchedules = new LazyValue<List<Schedule>>() {
 
 		@Override
@@ -0,0 +1,171 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import at.jclehner.rxdroid.util.IntHashMap;
+
+/**
+ * Index of cached Drugs, partitioned by patient ID.
+ * <p>
+ * Each partition is kept ordered by sort-rank (see {@link Drug#compareTo(Drug)}),
+ * so that looking up a patient's drugs only visits that patient's drugs, and
+ * requires no sorting.
+ * <p>
+ * Drugs are usually modified in place, so a drug's patient may already have
+ * changed by the time it is removed. The partition each drug was added to is
+ * thus remembered, instead of being derived from the drug.
+ * <p>
+ * Lookups only take a read lock, and may thus run concurrently.
+ *
+ * @author Joseph Lehner
+ *
+ */
+final class DrugPartitions implements EntryCache.Index<Drug>
+{
+	private final IntHashMap<List<Drug>> mByPatient = new IntHashMap<List<Drug>>();
+	// The patient ID each drug was filed under
+	private final IdentityHashMap<Drug, Integer> mPatientIds = new IdentityHashMap<Drug, Integer>();
+
+	private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+
+	@Override
+	public void add(Drug drug)
+	{
+		mLock.writeLock().lock();
+
+		try
+		{
+			final int patientId = drug.getPatientId();
+
+			List<Drug> drugs = mByPatient.get(patientId);
+			if(drugs == null)
+			{
+				drugs = new ArrayList<Drug>();
+				mByPatient.put(patientId, drugs);
+			}
+
+			// Since the other drugs' sort-ranks may also have been changed in place,
+			// we can't rely on the partition being ordered, so sort it instead of
+			// using a binary search. The partition is almost always ordered however,
+			// in which case sorting it takes linear time.
+			drugs.add(drug);
+			Collections.sort(drugs);
+
+			mPatientIds.put(drug, patientId);
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void remove(Drug drug)
+	{
+		mLock.writeLock().lock();
+
+		try
+		{
+			final Integer patientId = mPatientIds.remove(drug);
+			if(patientId == null)
+				return;
+
+			final List<Drug> drugs = mByPatient.get(patientId);
+			if(drugs == null)
+				return;
+
+			for(int i = 0; i != drugs.size(); ++i)
+			{
+				if(drugs.get(i) == drug)
+				{
+					drugs.remove(i);
+					break;
+				}
+			}
+
+			if(drugs.isEmpty())
+				mByPatient.remove(patientId);
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds all drugs of the specified patient to <code>outDrugs</code>, ordered
+	 * by sort-rank.
+	 */
+	void find(int patientId, List<Drug> outDrugs)
+	{
+		mLock.readLock().lock();
+
+		try
+		{
+			final List<Drug> drugs = mByPatient.get(patientId);
+			if(drugs != null)
+				outDrugs.addAll(drugs);
+		}
+		finally
+		{
+			mLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the IDs of all patients having at least one drug.
+	 */
+	int[] getPatientIds()
+	{
+		mLock.readLock().lock();
+
+		try
+		{
+			return mByPatient.keys();
+		}
+		finally
+		{
+			mLock.readLock().unlock();
+		}
+	}
+
+	int count(int patientId)
+	{
+		mLock.readLock().lock();
+
+		try
+		{
+			final List<Drug> drugs = mByPatient.get(patientId);
+			return drugs != null ? drugs.size() : 0;
+		}
+		finally
+		{
+			mLock.readLock().unlock();
+		}
+	}
+}
@@ -24,28 +24,23 @@ package at.jclehner.rxdroid.db;
 import android.util.Log;
 import android.widget.Toast;
 
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 
 import at.jclehner.rxdroid.Fraction;
-import at.jclehner.rxdroid.Fraction.MutableFraction;
+import at.jclehner.rxdroid.FractionMath;
 import at.jclehner.rxdroid.R;
 import at.jclehner.rxdroid.RxDroid;
 import at.jclehner.rxdroid.Settings;
 import at.jclehner.rxdroid.util.Constants;
 import at.jclehner.rxdroid.util.DateTime;
 import at.jclehner.rxdroid.util.Util;
-import at.jclehner.rxdroid.util.WrappedCheckedException;
 
-import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.stmt.PreparedQuery;
-import com.j256.ormlite.stmt.QueryBuilder;
-import com.j256.ormlite.stmt.Where;
 
 import org.joda.time.Days;
 import org.joda.time.LocalDate;
@@ -55,31 +50,71 @@ public final class Entries
 	@SuppressWarnings("unused")
 	private static final String TAG = Entries.class.getSimpleName();
 
-	private static final Dao<DoseEvent, Integer> sDoseEventDao =
-		Database.USE_CUSTOM_CACHE ? null : Database.getHelper().getDaoChecked(DoseEvent.class);
-
 	private static final String[] TIME_NAMES = {
 		"MORNING", "NOON", "EVENING", "NIGHT"
 	};
 
+	/**
+	 * Returns all drugs of the specified patient, ordered by sort-rank.
+	 *
+	 * @param patientId The patient's ID. Pass <code>0</code> for the default patient,
+	 *     which also returns all drugs whose patient does not exist.
+	 */
 	public static List<Drug> getAllDrugs(int patientId)
 	{
-		final List<Drug> list = new ArrayList<Drug>();
+		if(patientId == 0)
+			return getDefaultPatientDrugs();
+
+		final List<Drug> drugs = Database.query(Drug.class,
+				new Query().eq(Query.Field.PATIENT_ID, patientId));
+
+		// The cache's partitions are already ordered
+		if(!Database.USE_CUSTOM_CACHE)
+			Collections.sort(drugs);
+
+		return drugs;
+	}
+
+	private static List<Drug> getDefaultPatientDrugs()
+	{
+		final List<Drug> drugs = new ArrayList<Drug>();
 
-		for(Drug drug : Database.getCached(Drug.class))
+		if(!Database.USE_CUSTOM_CACHE)
 		{
-			final boolean matches;
+			for(Drug drug : Database.getCached(Drug.class))
+			{
+				if(isDefaultPatient(drug.getPatientId()))
+					drugs.add(drug);
+			}
 
-			if(patientId == 0)
-				matches = (drug.getPatient() == null || drug.getPatient().isDefaultPatient());
-			else
-				matches = (patientId == drug.getPatientId());
+			Collections.sort(drugs);
+			return drugs;
+		}
+
+		// Partitions of patients that don't exist are rare, so there's
+		// usually just one partition, which is already ordered.
+		final DrugPartitions partitions = Database.getDrugPartitions();
+		int partitionCount = 0;
 
-			if(matches)
-				list.add(drug);
+		for(int patientId : partitions.getPatientIds())
+		{
+			if(isDefaultPatient(patientId))
+			{
+				partitions.find(patientId, drugs);
+				++partitionCount;
+			}
 		}
 
-		return list;
+		if(partitionCount > 1)
+			Collections.sort(drugs);
+
+		return drugs;
+	}
+
+	private static boolean isDefaultPatient(int patientId)
+	{
+		final Patient patient = Database.find(Patient.class, patientId);
+		return patient == null || patient.isDefaultPatient();
 	}
 
 	public static CharSequence[] getAllPatientNames()
@@ -98,8 +133,9 @@ public final class Entries
 		if(!drug.isActive())
 			return false;
 
-		final Date lastScheduleUpdateDate = drug.getLastScheduleUpdateDate();
-		if(lastScheduleUpdateDate != null && date.before(lastScheduleUpdateDate))
+		final int epochDay = DateTime.toEpochDay(date);
+		final int lastScheduleUpdateEpochDay = drug.getLastScheduleUpdateEpochDay();
+		if(epochDay < lastScheduleUpdateEpochDay)
 			return false;
 
 		final int repeatMode = drug.getRepeatMode();
@@ -117,20 +153,21 @@ public final class Entries
 		{
 			long days = drug.getRepeatArg();
 
-			final Date origin = drug.getRepeatOrigin();
-			if(date.before(origin))
+			final int originEpochDay = drug.getRepeatOriginEpochDay();
+			if(epochDay < originEpochDay)
 				return false;
 
-			long elapsedDays = (date.getTime() - origin.getTime()) / Constants.MILLIS_PER_DAY;
+			long elapsedDays = epochDay - originEpochDay;
 
 			int offset = (int) -(elapsedDays % days);
 			if(offset == 0)
 				offset = (int) -days;
 
-			final Date lastIntakeDate = DateTime.add(date, Calendar.DAY_OF_MONTH, offset);
-			if(lastScheduleUpdateDate != null && lastIntakeDate.compareTo(drug.getLastScheduleUpdateDate()) == -1)
+			if(epochDay + offset < lastScheduleUpdateEpochDay)
 				return false;
 
+			final Date lastIntakeDate = DateTime.add(date, Calendar.DAY_OF_MONTH, offset);
+
 			//if(!isDateAfterLastScheduleUpdateOfDrug(lastIntakeDate, drug))
 			//	return false;
 
@@ -147,10 +184,11 @@ public final class Entries
 
 			for(int i = 0; i != 7; ++i)
 			{
-				final Date checkDate = DateTime.add(date, Calendar.DAY_OF_MONTH, -7 + i);
-				if(!isDateAfterLastScheduleUpdateOfDrug(checkDate, drug))
+				if(epochDay - 7 + i <= lastScheduleUpdateEpochDay)
 					continue;
 
+				final Date checkDate = DateTime.add(date, Calendar.DAY_OF_MONTH, -7 + i);
+
 				for(int doseTime : Constants.DOSE_TIMES)
 				{
 					if(!drug.getDose(doseTime, checkDate).isZero())
@@ -178,18 +216,18 @@ public final class Entries
 		if(date == null)
 			date = DateTime.today();
 
-		final MutableFraction doseLeftOnDate = new MutableFraction();
+		long doseLeftOnDate = FractionMath.ZERO;
 
 		if(date.equals(DateTime.today()) && drug.hasDoseOnDate(date))
 		{
 			for(int doseTime : Constants.DOSE_TIMES)
 			{
 				if(countDoseEvents(drug, date, doseTime) == 0)
-					doseLeftOnDate.add(drug.getDose(doseTime, date));
+					doseLeftOnDate = FractionMath.add(doseLeftOnDate, drug.getDose(doseTime, date).toPackedLong());
 			}
 		}
 
-		final double supply = drug.getCurrentSupply().doubleValue() - doseLeftOnDate.doubleValue();
+		final double supply = drug.getCurrentSupply().doubleValue() - FractionMath.doubleValue(doseLeftOnDate);
 		return (int) (Math.floor(supply / getDailyDose(drug) * getSupplyCorrectionFactor(drug)));
 	}
 
@@ -213,44 +251,28 @@ public final class Entries
 	 */
 	public static List<DoseEvent> findDoseEvents(Drug drug, Date date, Integer doseTime)
 	{
-		if(Database.USE_CUSTOM_CACHE)
-		{
-			final List<DoseEvent> events = new LinkedList<DoseEvent>();
-
-			for(DoseEvent event : Database.getCached(DoseEvent.class, true))
-			{
-				if(DoseEvent.has(event, drug, date, doseTime))
-					events.add(event);
-			}
+		final Query query = new Query();
 
-			return events;
-		}
-		else
-		{
-			try
-			{
-				final QueryBuilder<DoseEvent, Integer> qb = sDoseEventDao.queryBuilder();
-				final Where<DoseEvent, Integer> where = qb.where();
+		if(drug != null)
+			query.eq(Query.Field.DRUG_ID, drug.id);
 
-				if(drug != null)
-					where.eq("drug_id", drug.id).and();
+		if(date != null)
+			query.eq(Query.Field.DATE, date);
 
-				if(date != null)
-					where.eq("date", date).and();
+		if(doseTime != null)
+			query.eq(Query.Field.DOSE_TIME, doseTime);
 
-				if(doseTime != null)
-					where.eq("doseTime", doseTime);
+		return Database.query(DoseEvent.class, query);
+	}
 
-				return sDoseEventDao.query(qb.prepare());
-			}
-			catch(SQLException e)
-			{
-				throw new WrappedCheckedException(e);
-			}
+	public static int countDoseEvents(Drug drug, Date date, Integer doseTime)
+	{
+		if(Database.USE_CUSTOM_CACHE)
+		{
+			return Database.getDoseEventIndex(date).count(drug.id,
+					date != null ? Integer.valueOf(DateTime.toEpochDay(date)) : null, doseTime);
 		}
-	}
 
-	public static int countDoseEvents(Drug drug, Date date, Integer doseTime) {
 		return findDoseEvents(drug, date, doseTime).size();
 	}
 
@@ -293,7 +315,7 @@ public final class Entries
 
 	public static Fraction getTotalDoseInTimePeriod_dumb(Drug drug, Date begin, Date end, boolean stopIfSupplyIsEmpty)
 	{
-		final MutableFraction totalDose = new MutableFraction();
+		long totalDose = FractionMath.ZERO;
 
 		final Calendar cal = DateTime.calendarFromDate(begin);
 		cal.add(Calendar.DAY_OF_MONTH, 1);
@@ -301,21 +323,21 @@ public final class Entries
 
 		while((date = cal.getTime()).before(end) || date.equals(end))
 		{
-			getTotalDose(drug, date, totalDose);
+			totalDose = getTotalDose(drug, date, totalDose);
 
-			if(totalDose.isNegative() && stopIfSupplyIsEmpty)
+			if(FractionMath.isNegative(totalDose) && stopIfSupplyIsEmpty)
 				return drug.getCurrentSupply();
 
 			cal.add(Calendar.DAY_OF_MONTH, 1);
 		}
 
-		return totalDose;
+		return Fraction.fromPackedLong(totalDose);
 	}
 
 	public static Fraction getTotalDoseInTimePeriod_smart(Drug drug, Date begin, Date end)
 	{
 		final int repeatMode = drug.getRepeatMode();
-		final MutableFraction baseDose = new MutableFraction();
+		long baseDose = FractionMath.ZERO;
 		int doseMultiplier = 0;
 
 		if(drug.isAsNeeded())
@@ -323,12 +345,12 @@ public final class Entries
 
 		if(repeatMode == Drug.REPEAT_DAILY)
 		{
-			getTotalDose(drug, null, baseDose);
+			baseDose = getTotalDose(drug, null, baseDose);
 			doseMultiplier = (int) DateTime.diffDays(begin, end);
 		}
 		else if(repeatMode == Drug.REPEAT_EVERY_N_DAYS)
 		{
-			getTotalDose(drug, null, baseDose);
+			baseDose = getTotalDose(drug, null, baseDose);
 
 			final long arg = drug.getRepeatArg();
 			final long daysInPeriod = DateTime.diffDays(begin, end);
@@ -340,7 +362,7 @@ public final class Entries
 		}
 		else if(repeatMode == Drug.REPEAT_WEEKDAYS)
 		{
-			getTotalDose(drug, null, new MutableFraction());
+			baseDose = getTotalDose(drug, null, baseDose);
 
 			final Calendar cal = DateTime.calendarFromDate(begin);
 			int weekDay;
@@ -381,13 +403,15 @@ public final class Entries
 		}
 		else if(repeatMode == Drug.REPEAT_21_7)
 		{
-			getTotalDose(drug, null, baseDose);
+			baseDose = getTotalDose(drug, null, baseDose);
 
-			final Date origin = drug.getRepeatOrigin();
+			final int originEpochDay = drug.getRepeatOriginEpochDay();
+			final int beginEpochDay = DateTime.toEpochDay(begin);
+			final int endEpochDay = DateTime.toEpochDay(end);
 
-			long daysInTimePeriod = DateTime.diffDays(begin, end);
-			final long daysFromOriginToBegin = DateTime.diffDays(origin, begin);
-			final long daysFromOriginToEnd = DateTime.diffDays(origin, end);
+			long daysInTimePeriod = endEpochDay - beginEpochDay;
+			final long daysFromOriginToBegin = beginEpochDay - originEpochDay;
+			final long daysFromOriginToEnd = endEpochDay - originEpochDay;
 
 			long index = daysFromOriginToBegin % 28;
 			if(index < 21)
@@ -411,16 +435,12 @@ public final class Entries
 		else
 			throw new UnsupportedOperationException();
 
-		return baseDose.times(doseMultiplier);
+		return Fraction.fromPackedLong(FractionMath.multiply(baseDose, doseMultiplier));
 	}
 
 	public static boolean isDateAfterLastScheduleUpdateOfDrug(Date date, Drug drug)
 	{
-		final Date lastScheduleUpdateDate = drug.getLastScheduleUpdateDate();
-		if(lastScheduleUpdateDate == null)
-			return true;
-
-		return date.after(lastScheduleUpdateDate);
+		return DateTime.toEpochDay(date) > drug.getLastScheduleUpdateEpochDay();
 	}
 
 	public static boolean hasLowSupplies(Drug drug, Date date)
@@ -505,8 +525,30 @@ public final class Entries
 
 		getDrugsWithMissedDoses(drugs, date, doseTime, isActiveDoseTime, events);
 
-		int skipped = 0, taken = 0;
+		final int[] skippedAndTaken = { 0, 0 };
 
+		// Write all events and supply changes in one go
+		Database.runInBatch(new Runnable() {
+
+			@Override
+			public void run() {
+				takeOrSkipDoses(events, skippedAndTaken);
+			}
+		});
+
+		final int skipped = skippedAndTaken[0];
+		final int taken = skippedAndTaken[1];
+
+		if(skipped != 0)
+			RxDroid.toastLong(R.string._toast_some_doses_skipped);
+		else if(taken != 0)
+			RxDroid.toastLong(R.string._toast_all_doses_taken);
+		else
+			RxDroid.toastShort(R.string._toast_no_doses_to_take);
+	}
+
+	private static void takeOrSkipDoses(List<DoseEvent> events, int[] outSkippedAndTaken)
+	{
 		for(DoseEvent event : events)
 		{
 			final boolean skip;
@@ -532,23 +574,16 @@ public final class Entries
 
 			if(skip)
 			{
-				++skipped;
+				++outSkippedAndTaken[0];
 				event.setDose(Fraction.ZERO);
 			}
 			else
-				++taken;
+				++outSkippedAndTaken[1];
 
 			Database.create(event);
 
 			Log.d(TAG, "Creating event: " + event);
 		}
-
-		if(skipped != 0)
-			RxDroid.toastLong(R.string._toast_some_doses_skipped);
-		else if(taken != 0)
-			RxDroid.toastLong(R.string._toast_all_doses_taken);
-		else
-			RxDroid.toastShort(R.string._toast_no_doses_to_take);
 	}
 
 	public static int getDrugsWithDueDoses(List<Drug> inDrugs, Date date, int doseTime, List<DoseEvent> outEvents)
@@ -595,10 +630,16 @@ public final class Entries
 		return count;
 	}
 
-	private static void getTotalDose(Drug drug, Date date, MutableFraction outTotalDose)
+	/**
+	 * Adds the drug's total dose on the specified date to <code>totalDose</code>.
+	 *
+	 * @param date The date, or <code>null</code> to use the drug's regular doses.
+	 * @return The packed sum (see {@link FractionMath}).
+	 */
+	private static long getTotalDose(Drug drug, Date date, long totalDose)
 	{
 		if((date != null && !drug.hasDoseOnDate(date)) || drug.isAsNeeded())
-			return;
+			return totalDose;
 
 		for(int doseTime : Constants.DOSE_TIMES)
 		{
@@ -609,10 +650,10 @@ public final class Entries
 			else
 				dose = drug.getDose(doseTime, date);
 
-			outTotalDose.add(dose);
+			totalDose = FractionMath.add(totalDose, dose.toPackedLong());
 		}
 
-		return;
+		return totalDose;
 	}
 
 	private static double getDailyDose(Drug drug)
@@ -36,11 +36,10 @@ import com.j256.ormlite.field.DatabaseField;
  * {@link #hashCode()}.
  * <p>
  * Also note that you may define hooks for descendant classes that are called when
- * the database is modified. A hook has the name HOOK_&lt;db action name&gt; (see
- * Drug docs for valid action names). The following is a sample hook implementation:
- *
- *
- * @see
+ * the database is modified. A hook is a {@link Callback}, which must be registered
+ * for a specific {@link DbAction} in <code>Database</code>'s static initializer
+ * (see {@link Schedule#CALLBACK_DELETED} for an example of a callback, though this
+ * one is not registered).
  *
  * @author Joseph Lehner
  *
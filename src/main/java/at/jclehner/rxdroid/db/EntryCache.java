@@ -0,0 +1,436 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import at.jclehner.rxdroid.util.IntHashMap;
+
+/**
+ * In-memory cache of all entries of one class.
+ * <p>
+ * Entries are kept in a <code>List</code>, in the order in which they were
+ * loaded or created, as well as in an ID-keyed map, so that looking up an entry
+ * by its ID does not require walking the list.
+ * <p>
+ * Newly created entries are only indexed by ID once the DB has assigned them
+ * one (see {@link #onIdAssigned(Entry)}). Until then, they can only be found by
+ * iterating the list.
+ * <p>
+ * Additional indexes can be attached using {@link #addIndex(Index)}; these are
+ * kept in sync with the cache's contents, and entries are only ever added to or
+ * removed from them while holding the cache's write lock.
+ * <p>
+ * Lookups only take the cache's read lock, so any number of threads may
+ * read from the cache concurrently. The cached entries as a whole are handed
+ * out as an immutable {@link EntryList}, which is only created once after
+ * each modification, and then shared by all readers.
+ *
+ * @author Joseph Lehner
+ *
+ * @param <E> the entry type.
+ */
+final class EntryCache<E extends Entry>
+{
+	/**
+	 * A secondary index over the cached entries.
+	 */
+	interface Index<E extends Entry>
+	{
+		void add(E entry);
+		void remove(E entry);
+	}
+
+	private final List<E> mEntries;
+	private final IntHashMap<E> mById;
+	private final List<Index<E>> mIndexes = new ArrayList<Index<E>>();
+
+	private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+
+	// Shared by all caches, so that versions remain comparable across reloads
+	private static final AtomicLong VERSION = new AtomicLong();
+
+	// Guarded by mLock
+	private long mVersion = VERSION.incrementAndGet();
+	// Reset by every modification, created on demand
+	private volatile EntryList<E> mSnapshot = null;
+
+	EntryCache(List<E> entries)
+	{
+		mEntries = entries;
+		mById = new IntHashMap<E>(entries.size());
+
+		for(E entry : entries)
+			index(entry);
+	}
+
+	/**
+	 * Returns an immutable snapshot of the cached entries.
+	 */
+	EntryList<E> snapshot()
+	{
+		EntryList<E> snapshot = mSnapshot;
+		if(snapshot != null)
+			return snapshot;
+
+		mLock.readLock().lock();
+
+		try
+		{
+			// Several readers might get here at the same time, but they'll
+			// all create identical snapshots.
+			snapshot = mSnapshot;
+			if(snapshot == null)
+				mSnapshot = snapshot = new EntryList<E>(mEntries.toArray(), mVersion);
+
+			return snapshot;
+		}
+		finally
+		{
+			mLock.readLock().unlock();
+		}
+	}
+
+	int size()
+	{
+		mLock.readLock().lock();
+
+		try
+		{
+			return mEntries.size();
+		}
+		finally
+		{
+			mLock.readLock().unlock();
+		}
+	}
+
+	E find(int id)
+	{
+		mLock.readLock().lock();
+
+		try
+		{
+			return mById.get(id);
+		}
+		finally
+		{
+			mLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the lock guarding all modifications.
+	 * <p>
+	 * Must be held when several modifications, or a lookup followed by a
+	 * modification, need to be atomic.
+	 */
+	Lock writeLock() {
+		return mLock.writeLock();
+	}
+
+	void addIndex(Index<E> index)
+	{
+		mLock.writeLock().lock();
+
+		try
+		{
+			for(E entry : mEntries)
+				index.add(entry);
+
+			mIndexes.add(index);
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
+		}
+	}
+
+	void add(E entry)
+	{
+		mLock.writeLock().lock();
+
+		try
+		{
+			mEntries.add(entry);
+			index(entry);
+			onModified();
+
+			for(Index<E> index : mIndexes)
+				index.add(entry);
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds entries that precede all cached ones.
+	 * <p>
+	 * Used when paging in entries that were not loaded initially, so that the
+	 * list remains ordered by age.
+	 */
+	void prependAll(List<E> entries)
+	{
+		mLock.writeLock().lock();
+
+		try
+		{
+			if(entries.isEmpty())
+				return;
+
+			mEntries.addAll(0, entries);
+			onModified();
+
+			for(E entry : entries)
+			{
+				index(entry);
+
+				for(Index<E> index : mIndexes)
+					index.add(entry);
+			}
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes an entry.
+	 *
+	 * @return the cached instance that was removed, or <code>null</code>.
+	 */
+	E remove(E entry)
+	{
+		mLock.writeLock().lock();
+
+		try
+		{
+			E cached = entry.id >= 0 ? mById.remove(entry.id) : null;
+
+			if(cached == null || !removeIdentical(cached))
+			{
+				final int index = mEntries.indexOf(entry);
+				cached = index != -1 ? mEntries.remove(index) : null;
+			}
+
+			if(cached != null)
+			{
+				for(Index<E> index : mIndexes)
+					index.remove(cached);
+
+				onModified();
+			}
+
+			return cached;
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes all specified entries, which must be cached instances.
+	 * <p>
+	 * The list is compacted in a single pass, which stops as soon as all entries
+	 * have been found. Since entries are kept in the order in which they were
+	 * created, removing the oldest entries thus only compares these. All entries
+	 * following them still have to be moved to the front, which is done using a
+	 * single bulk copy, so the total cost remains proportional to the size of
+	 * the cache, not to the number of removed entries.
+	 */
+	void removeAll(List<E> entries)
+	{
+		mLock.writeLock().lock();
+
+		try
+		{
+			if(entries.isEmpty())
+				return;
+
+			final Set<E> removed = Collections.newSetFromMap(new IdentityHashMap<E, Boolean>(entries.size()));
+			removed.addAll(entries);
+
+			final int size = mEntries.size();
+			int remaining = removed.size();
+			int r = 0, w = 0;
+
+			for(; r != size && remaining != 0; ++r)
+			{
+				final E entry = mEntries.get(r);
+				if(removed.contains(entry))
+					--remaining;
+				else
+				{
+					if(w != r)
+						mEntries.set(w, entry);
+
+					++w;
+				}
+			}
+
+			mEntries.subList(w, r).clear();
+			onModified();
+
+			for(E entry : removed)
+			{
+				if(entry.id >= 0 && mById.get(entry.id) == entry)
+					mById.remove(entry.id);
+
+				for(Index<E> index : mIndexes)
+					index.remove(entry);
+			}
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replaces the cached instance having the same ID as the specified entry.
+	 *
+	 * @return the cached instance that was replaced.
+	 * @throws NoSuchElementException if no such entry exists.
+	 */
+	E replace(E entry)
+	{
+		mLock.writeLock().lock();
+
+		try
+		{
+			final E cached = entry.id >= 0 ? mById.get(entry.id) : null;
+			int index = indexOfIdentical(cached != null ? cached : entry);
+
+			if(index == -1 && entry.id >= 0)
+			{
+				// The entry might have been created before its ID was assigned
+				for(int i = 0; i != mEntries.size(); ++i)
+				{
+					if(mEntries.get(i).id == entry.id)
+					{
+						index = i;
+						break;
+					}
+				}
+			}
+
+			if(index == -1)
+				throw new NoSuchElementException(entry.getClass().getSimpleName() + " with id=" + entry.id);
+
+			final E old = mEntries.set(index, entry);
+			index(entry);
+			onModified();
+
+			for(Index<E> i : mIndexes)
+			{
+				i.remove(old);
+				i.add(entry);
+			}
+
+			return old;
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds a newly created entry to the ID index.
+	 * <p>
+	 * Must be called once the DB has assigned the entry's ID.
+	 */
+	void onIdAssigned(E entry)
+	{
+		mLock.writeLock().lock();
+
+		try
+		{
+			if(indexOfIdentical(entry) != -1)
+			{
+				index(entry);
+
+				// Indexes may depend on the ID, e.g. for ordering
+				for(Index<E> index : mIndexes)
+				{
+					index.remove(entry);
+					index.add(entry);
+				}
+			}
+		}
+		finally
+		{
+			mLock.writeLock().unlock();
+		}
+	}
+
+	// Must hold the write lock
+	private void onModified()
+	{
+		mVersion = VERSION.incrementAndGet();
+		mSnapshot = null;
+	}
+
+	private void index(E entry)
+	{
+		if(entry.id >= 0)
+			mById.put(entry.id, entry);
+	}
+
+	private boolean removeIdentical(E entry)
+	{
+		final int index = indexOfIdentical(entry);
+		if(index == -1)
+			return false;
+
+		mEntries.remove(index);
+		return true;
+	}
+
+	private int indexOfIdentical(E entry)
+	{
+		if(entry == null)
+			return -1;
+
+		// Entry subclasses define equals() in terms of their contents, not their
+		// IDs, so we must look for this exact instance.
+		for(int i = mEntries.size() - 1; i >= 0; --i)
+		{
+			if(mEntries.get(i) == entry)
+				return i;
+		}
+
+		return -1;
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Immutable snapshot of all cached entries of one class.
+ * <p>
+ * Snapshots are shared by all callers until the cache is modified, so
+ * obtaining one does not copy anything, and iterating one requires no
+ * locking. Any attempt to modify a snapshot throws an
+ * <code>UnsupportedOperationException</code>.
+ * <p>
+ * Every snapshot carries a version number, which increases with every
+ * modification of the cache. Comparing the versions of two snapshots
+ * of the same class thus tells whether the data has changed.
+ *
+ * @author Joseph Lehner
+ *
+ * @param <E> the entry type.
+ */
+public final class EntryList<E extends Entry> extends AbstractList<E> implements RandomAccess
+{
+	private final Object[] mEntries;
+	private final long mVersion;
+
+	/* package */ EntryList(Object[] entries, long version)
+	{
+		mEntries = entries;
+		mVersion = version;
+	}
+
+	/**
+	 * Returns the snapshot's version.
+	 * <p>
+	 * Snapshots that were not taken from the cache have a version of
+	 * <code>-1</code>.
+	 */
+	public long getVersion() {
+		return mVersion;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public E get(int location) {
+		return (E) mEntries[location];
+	}
+
+	@Override
+	public int size() {
+		return mEntries.length;
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.sql.SQLException;
+import java.util.Date;
+
+import at.jclehner.rxdroid.util.DateTime;
+
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.field.types.IntegerObjectType;
+
+/**
+ * Persists date-only values as an integer column.
+ * <p>
+ * Dates are stored as epoch-days (see {@link DateTime#toEpochDay(Date)}), and
+ * loaded as the local midnight of that day. Query arguments may be given either
+ * as a <code>Date</code>, or as an epoch-day. Prior to DB v63, dates were stored
+ * as strings.
+ *
+ * @author Joseph Lehner
+ *
+ */
+public class EpochDayPersister extends IntegerObjectType
+{
+	private static EpochDayPersister sInstance = new EpochDayPersister();
+
+	public static EpochDayPersister getSingleton() {
+		return sInstance;
+	}
+
+	private EpochDayPersister() {
+		super(SqlType.INTEGER, new Class<?>[0]);
+	}
+
+	protected EpochDayPersister(SqlType sqlType, Class<?>[] classes) {
+		super(sqlType, classes);
+	}
+
+	@Override
+	public Object javaToSqlArg(FieldType fieldType, Object javaObject) throws SQLException
+	{
+		if(javaObject instanceof Number)
+			return ((Number) javaObject).intValue();
+
+		return DateTime.toEpochDay((Date) javaObject);
+	}
+
+	@Override
+	public Object sqlArgToJava(FieldType fieldType, Object sqlArg, int columnPos) throws SQLException {
+		return sqlArg != null ? DateTime.fromEpochDay((Integer) sqlArg) : null;
+	}
+
+	@Override
+	public Object resultStringToJava(FieldType fieldType, String stringValue, int columnPos) throws SQLException
+	{
+		if(stringValue == null || stringValue.length() == 0)
+			return null;
+
+		return DateTime.fromEpochDay(Integer.parseInt(stringValue));
+	}
+}
@@ -27,9 +27,19 @@ import at.jclehner.rxdroid.Fraction;
 
 import com.j256.ormlite.field.FieldType;
 import com.j256.ormlite.field.SqlType;
-import com.j256.ormlite.field.types.StringType;
+import com.j256.ormlite.field.types.LongObjectType;
 
-public class FractionPersister extends StringType
+/**
+ * Persists Fractions as a single integer column.
+ * <p>
+ * Values are stored as returned by {@link Fraction#toPackedLong()}, so that
+ * loading a Fraction does not involve parsing a string. Prior to DB v62,
+ * Fractions were stored as strings (see {@link Fraction#valueOf(String)}).
+ *
+ * @author Joseph Lehner
+ *
+ */
+public class FractionPersister extends LongObjectType
 {
 	private static FractionPersister sInstance = new FractionPersister();
 
@@ -38,7 +48,7 @@ public class FractionPersister extends StringType
 	}
 
 	private FractionPersister() {
-		super(SqlType.STRING, new Class<?>[] { String.class });
+		super(SqlType.LONG, new Class<?>[0]);
 	}
 
 	protected FractionPersister(SqlType sqlType, Class<?>[] classes) {
@@ -47,24 +57,20 @@ public class FractionPersister extends StringType
 
 	@Override
 	public Object javaToSqlArg(FieldType fieldType, Object javaObject) throws SQLException {
-		return ((Fraction) javaObject).toString();
+		return ((Fraction) javaObject).toPackedLong();
 	}
 
 	@Override
 	public Object sqlArgToJava(FieldType fieldType, Object sqlArg, int columnPos) throws SQLException {
-		return valueOf(sqlArg);
+		return sqlArg != null ? Fraction.fromPackedLong((Long) sqlArg) : Fraction.ZERO;
 	}
 
 	@Override
-	public Object resultStringToJava(FieldType fieldType, String stringValue, int columnPos) throws SQLException {
-		return valueOf(stringValue);
-	}
-
-	private static Fraction valueOf(Object object)
+	public Object resultStringToJava(FieldType fieldType, String stringValue, int columnPos) throws SQLException
 	{
-		if(object == null || ((String) object).length() == 0)
+		if(stringValue == null || stringValue.length() == 0)
 			return Fraction.ZERO;
 
-		return Fraction.valueOf((String) object);
+		return Fraction.fromPackedLong(Long.parseLong(stringValue));
 	}
 }
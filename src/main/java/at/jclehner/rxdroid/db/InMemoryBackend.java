@@ -0,0 +1,216 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+import at.jclehner.rxdroid.util.DateTime;
+
+/**
+ * Keeps all entries in memory.
+ * <p>
+ * This backend does not depend on Android, so that the cache, its indexes and
+ * everything built on top of them can be tested and benchmarked on a plain JVM,
+ * using any number of synthetic entries (see {@link #add(Entry)}).
+ * <p>
+ * Entries are stored by reference, not copied, so any in-place modification of
+ * an entry is immediately visible to this backend, and all data is lost once
+ * the backend is discarded.
+ *
+ * @author Joseph Lehner
+ *
+ */
+public final class InMemoryBackend extends StorageBackend
+{
+	private static final Comparator<DoseEvent> BY_DATE = new Comparator<DoseEvent>() {
+
+		@Override
+		public int compare(DoseEvent lhs, DoseEvent rhs) {
+			return lhs.getEpochDay() - rhs.getEpochDay();
+		}
+	};
+
+	private static final class Table
+	{
+		// Ordered by ID
+		final TreeMap<Integer, Entry> entries = new TreeMap<Integer, Entry>();
+		int lastId = 0;
+	}
+
+	private final HashMap<Class<?>, Table> mTables = new HashMap<Class<?>, Table>();
+
+	/**
+	 * Adds an entry, bypassing <code>Database</code>.
+	 * <p>
+	 * Used for populating the backend before passing it to {@link Database#reload(StorageBackend)}.
+	 * If the entry has no ID, a new one is assigned.
+	 */
+	public synchronized void add(Entry entry)
+	{
+		if(entry.id < 0)
+			create(entry);
+		else
+		{
+			final Table table = getTable(entry.getClass());
+			table.entries.put(entry.id, entry);
+			table.lastId = Math.max(table.lastId, entry.id);
+		}
+	}
+
+	/**
+	 * Returns the number of stored entries of the specified class.
+	 */
+	public synchronized int size(Class<? extends Entry> clazz) {
+		return getTable(clazz).entries.size();
+	}
+
+	@Override
+	int getVersion() {
+		return DatabaseHelper.DB_VERSION;
+	}
+
+	@Override
+	boolean isPersistent() {
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	synchronized <T extends Entry> List<T> loadAll(Class<T> clazz) {
+		return new ArrayList<T>((Collection<T>) getTable(clazz).entries.values());
+	}
+
+	@Override
+	synchronized List<DoseEvent> loadDoseEvents(Date from, Date to)
+	{
+		final List<DoseEvent> events = new ArrayList<DoseEvent>();
+		final int fromDay = from != null ? DateTime.toEpochDay(from) : Integer.MIN_VALUE;
+		final int toDay = to != null ? DateTime.toEpochDay(to) : Integer.MAX_VALUE;
+
+		for(Entry entry : getTable(DoseEvent.class).entries.values())
+		{
+			final int epochDay = ((DoseEvent) entry).getEpochDay();
+			if(epochDay < fromDay || epochDay >= toDay)
+				continue;
+
+			events.add((DoseEvent) entry);
+		}
+
+		// Stable, so events of the same day remain ordered by ID
+		Collections.sort(events, BY_DATE);
+		return events;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	synchronized <T extends Entry> List<T> query(Class<T> clazz, Query query)
+	{
+		final List<T> result = new ArrayList<T>();
+
+		for(Entry entry : getTable(clazz).entries.values())
+		{
+			if(query.matches(entry))
+				result.add((T) entry);
+		}
+
+		return result;
+	}
+
+	@Override
+	synchronized void write(List<DatabaseWriter.Operation> operations)
+	{
+		for(DatabaseWriter.Operation op : operations)
+		{
+			if(op.entry == null)
+			{
+				deleteBefore(op.clazz, op.date);
+				continue;
+			}
+
+			switch(op.action)
+			{
+				case CREATE:
+					create(op.entry);
+					break;
+
+				case UPDATE:
+					getTable(op.entry.getClass()).entries.put(op.entry.id, op.entry);
+					break;
+
+				case DELETE:
+					getTable(op.entry.getClass()).entries.remove(op.entry.id);
+					break;
+			}
+		}
+	}
+
+	@Override
+	synchronized void deleteIds(Class<? extends Entry> clazz, Collection<Integer> ids)
+	{
+		final Table table = getTable(clazz);
+
+		for(Integer id : ids)
+			table.entries.remove(id);
+	}
+
+	private void create(Entry entry)
+	{
+		final Table table = getTable(entry.getClass());
+		entry.id = ++table.lastId;
+		table.entries.put(entry.id, entry);
+	}
+
+	private void deleteBefore(Class<? extends Entry> clazz, Date date)
+	{
+		if(clazz != DoseEvent.class)
+			throw new UnsupportedOperationException(clazz.getSimpleName() + " has no date");
+
+		final int epochDay = DateTime.toEpochDay(date);
+
+		final Iterator<Entry> i = getTable(clazz).entries.values().iterator();
+		while(i.hasNext())
+		{
+			if(((DoseEvent) i.next()).getEpochDay() < epochDay)
+				i.remove();
+		}
+	}
+
+	private Table getTable(Class<?> clazz)
+	{
+		Table table = mTables.get(clazz);
+		if(table == null)
+		{
+			table = new Table();
+			mTables.put(clazz, table);
+		}
+
+		return table;
+	}
+}
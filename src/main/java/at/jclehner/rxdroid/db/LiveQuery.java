@@ -0,0 +1,242 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import at.jclehner.rxdroid.db.Database.Filter;
+
+/**
+ * A query result that is kept up to date as the database changes.
+ * <p>
+ * The result is initially computed from the cache, and then maintained
+ * incrementally: whenever an entry of the queried class is created, updated
+ * or deleted, only that entry is inserted, removed or moved within the result.
+ * Registered {@link Observer}s are notified of each such change.
+ * <p>
+ * Unlike {@link Database.OnChangeListener}s, live queries also see changes made
+ * using {@link Database#FLAG_DONT_NOTIFY_LISTENERS}, and are updated immediately,
+ * even within {@link Database#runInBatch(Runnable)}. Observers are called on the
+ * thread that made the change, while holding this object's lock, so they should
+ * return quickly.
+ * <p>
+ * A live query is updated until {@link #close()} is called, or until it is
+ * no longer referenced.
+ *
+ * @author Joseph Lehner
+ *
+ * @param <T> the entry type.
+ * @see Database#observe(Class, Filter, Comparator)
+ */
+public final class LiveQuery<T extends Entry>
+{
+	public interface Observer<T extends Entry>
+	{
+		/**
+		 * Called after an entry has been added to the result.
+		 */
+		void onInserted(int position, T entry);
+
+		/**
+		 * Called after an entry has been removed from the result.
+		 */
+		void onRemoved(int position, T entry);
+
+		/**
+		 * Called after an entry in the result has been updated.
+		 * <p>
+		 * If the update changed the entry's position, the positions differ.
+		 */
+		void onChanged(int oldPosition, int newPosition, T entry);
+	}
+
+	private final Class<T> mClass;
+	private final Filter<T> mFilter;
+	private final Comparator<? super T> mComparator;
+
+	private final ArrayList<T> mResults = new ArrayList<T>();
+	private final List<Observer<T>> mObservers = new ArrayList<Observer<T>>();
+
+	private EntryList<T> mSnapshot = null;
+	private long mVersion = 0;
+	private boolean mIsClosed = false;
+
+	/* package */ LiveQuery(Class<T> clazz, Filter<T> filter, Comparator<? super T> comparator)
+	{
+		mClass = clazz;
+		mFilter = filter;
+		mComparator = comparator;
+	}
+
+	/**
+	 * Returns the current result.
+	 * <p>
+	 * The returned list is immutable. Its version is incremented with every change
+	 * to the result.
+	 */
+	public synchronized EntryList<T> get()
+	{
+		if(mSnapshot == null)
+			mSnapshot = new EntryList<T>(mResults.toArray(), mVersion);
+
+		return mSnapshot;
+	}
+
+	public synchronized int size() {
+		return mResults.size();
+	}
+
+	public synchronized void addObserver(Observer<T> observer) {
+		mObservers.add(observer);
+	}
+
+	public synchronized void removeObserver(Observer<T> observer) {
+		mObservers.remove(observer);
+	}
+
+	/**
+	 * Stops updating the result.
+	 */
+	public void close()
+	{
+		synchronized(this)
+		{
+			mIsClosed = true;
+			mObservers.clear();
+		}
+
+		Database.closeLiveQuery(this);
+	}
+
+	/**
+	 * Computes the initial result.
+	 * <p>
+	 * Must be called after the query has been registered, so that we're notified
+	 * of all changes not already contained in the cache at this point. Any such
+	 * notification will wait until we're done.
+	 */
+	/* package */ synchronized void load()
+	{
+		for(T entry : Database.getAll(mClass))
+		{
+			// We might already have been notified of some of these
+			if(indexOf(entry) == -1 && matches(entry))
+				mResults.add(entry);
+		}
+
+		if(mComparator != null)
+			Collections.sort(mResults, mComparator);
+
+		onResultsChanged();
+	}
+
+	@SuppressWarnings("unchecked")
+	/* package */ synchronized void onChange(DbAction action, Entry entry)
+	{
+		if(mIsClosed || entry.getClass() != mClass)
+			return;
+
+		final T t = (T) entry;
+		final int oldPosition = indexOf(t);
+
+		if(oldPosition != -1)
+		{
+			final T old = mResults.remove(oldPosition);
+
+			if(action != DbAction.DELETE && matches(t))
+			{
+				final int newPosition = insert(t);
+				onResultsChanged();
+
+				for(Observer<T> observer : mObservers)
+					observer.onChanged(oldPosition, newPosition, t);
+			}
+			else
+			{
+				onResultsChanged();
+
+				for(Observer<T> observer : mObservers)
+					observer.onRemoved(oldPosition, old);
+			}
+		}
+		else if(action != DbAction.DELETE && matches(t))
+		{
+			final int position = insert(t);
+			onResultsChanged();
+
+			for(Observer<T> observer : mObservers)
+				observer.onInserted(position, t);
+		}
+	}
+
+	private boolean matches(T entry) {
+		return mFilter == null || mFilter.matches(entry);
+	}
+
+	private int insert(T entry)
+	{
+		int position = mResults.size();
+
+		if(mComparator != null)
+		{
+			position = Collections.binarySearch(mResults, entry, mComparator);
+			if(position < 0)
+				position = -position - 1;
+			else
+			{
+				// Keep entries that compare equal in the order of their insertion
+				while(position < mResults.size() && mComparator.compare(mResults.get(position), entry) == 0)
+					++position;
+			}
+		}
+
+		mResults.add(position, entry);
+		return position;
+	}
+
+	/**
+	 * Finds an entry by instance, or by ID if it has one.
+	 * <p>
+	 * Entries may be modified in place before being updated, so we can't
+	 * rely on the comparator to find them.
+	 */
+	private int indexOf(T entry)
+	{
+		for(int i = 0; i != mResults.size(); ++i)
+		{
+			final T t = mResults.get(i);
+			if(t == entry || (entry.id >= 0 && t.id == entry.id))
+				return i;
+		}
+
+		return -1;
+	}
+
+	private void onResultsChanged()
+	{
+		++mVersion;
+		mSnapshot = null;
+	}
+}
@@ -0,0 +1,205 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import android.content.Context;
+import android.util.Log;
+import at.jclehner.rxdroid.db.DatabaseHelper.DatabaseError;
+import at.jclehner.rxdroid.util.DateTime;
+import at.jclehner.rxdroid.util.WrappedCheckedException;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.Where;
+
+/**
+ * Stores entries in the app's SQLite DB, using ORMLite.
+ *
+ * @author Joseph Lehner
+ *
+ */
+final class OrmLiteBackend extends StorageBackend
+{
+	private static final String TAG = OrmLiteBackend.class.getSimpleName();
+	private static final boolean LOGV = true;
+
+	private final DatabaseHelper mHelper;
+
+	OrmLiteBackend(Context context) {
+		mHelper = new DatabaseHelper(context);
+	}
+
+	DatabaseHelper getHelper() {
+		return mHelper;
+	}
+
+	@Override
+	int getVersion() {
+		return mHelper.getWritableDatabase().getVersion();
+	}
+
+	@Override
+	boolean isPersistent() {
+		return true;
+	}
+
+	@Override
+	<T extends Entry> List<T> loadAll(Class<T> clazz)
+	{
+		try
+		{
+			return getDaoChecked(clazz).queryForAll();
+		}
+		catch(SQLException e)
+		{
+			throw new DatabaseError(DatabaseError.E_GENERAL, e);
+		}
+	}
+
+	@Override
+	List<DoseEvent> loadDoseEvents(Date from, Date to)
+	{
+		try
+		{
+			final QueryBuilder<DoseEvent, Integer> qb = getDaoChecked(DoseEvent.class).queryBuilder();
+
+			if(from != null || to != null)
+			{
+				final Where<DoseEvent, Integer> where = qb.where();
+
+				if(from != null)
+				{
+					where.ge(DoseEvent.COLUMN_EPOCH_DAY, DateTime.toEpochDay(from));
+					if(to != null)
+						where.and();
+				}
+
+				if(to != null)
+					where.lt(DoseEvent.COLUMN_EPOCH_DAY, DateTime.toEpochDay(to));
+			}
+
+			return qb.orderBy(DoseEvent.COLUMN_EPOCH_DAY, true).query();
+		}
+		catch(SQLException e)
+		{
+			throw new DatabaseError(DatabaseError.E_GENERAL, e);
+		}
+	}
+
+	@Override
+	<T extends Entry> List<T> query(Class<T> clazz, Query query)
+	{
+		try
+		{
+			final Dao<T, Integer> dao = getDaoChecked(clazz);
+			final QueryBuilder<T, Integer> qb = dao.queryBuilder();
+			query.applyTo(qb);
+			return dao.query(qb.prepare());
+		}
+		catch(SQLException e)
+		{
+			throw new WrappedCheckedException(e);
+		}
+	}
+
+	@Override
+	void write(final List<DatabaseWriter.Operation> operations)
+	{
+		try
+		{
+			TransactionManager.callInTransaction(mHelper.getConnectionSource(), new Callable<Void>() {
+
+				@Override
+				public Void call() throws SQLException
+				{
+					for(DatabaseWriter.Operation op : operations)
+					{
+						if(op.entry != null)
+							runDaoMethod(op.action, op.entry);
+						else
+							runDeleteBefore(op.clazz, op.date);
+					}
+
+					return null;
+				}
+			});
+		}
+		catch(SQLException e)
+		{
+			throw new WrappedCheckedException("Failed to run " + operations.size() + " DAO operations", e);
+		}
+	}
+
+	@Override
+	void deleteIds(Class<? extends Entry> clazz, Collection<Integer> ids)
+	{
+		try
+		{
+			getDaoChecked(clazz).deleteIds(ids);
+		}
+		catch(SQLException e)
+		{
+			throw new WrappedCheckedException(e);
+		}
+	}
+
+	@Override
+	boolean isOpen() {
+		return mHelper.isOpen();
+	}
+
+	@Override
+	void close() {
+		mHelper.close();
+	}
+
+	private <E extends Entry> void runDeleteBefore(Class<E> clazz, Date date) throws SQLException
+	{
+		if(clazz != DoseEvent.class)
+			throw new UnsupportedOperationException(clazz.getSimpleName() + " has no date");
+
+		final DeleteBuilder<E, Integer> builder = getDaoChecked(clazz).deleteBuilder();
+		builder.where().lt(DoseEvent.COLUMN_EPOCH_DAY, DateTime.toEpochDay(date));
+		final int count = builder.delete();
+
+		if(LOGV) Log.v(TAG, "runDeleteBefore: deleted " + count + " " + clazz.getSimpleName() + "s");
+	}
+
+	@SuppressWarnings("unchecked")
+	private <E extends Entry> void runDaoMethod(DbAction action, E entry) throws SQLException
+	{
+		final Dao<E, Integer> dao = (Dao<E, Integer>) getDaoChecked(entry.getClass());
+		action.runDaoMethod(dao, entry);
+	}
+
+	private <T> Dao<T, Integer> getDaoChecked(Class<T> clazz) {
+		return mHelper.getDaoChecked(clazz);
+	}
+}
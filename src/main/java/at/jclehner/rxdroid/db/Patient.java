@@ -21,6 +21,8 @@
 
 package at.jclehner.rxdroid.db;
 
+import java.io.IOException;
+
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 
@@ -52,6 +54,20 @@ public class Patient extends Entry implements Comparable<Patient>
 		return name == null;
 	}
 
+	/* package */ void writeTo(CacheSnapshot.Writer out) throws IOException
+	{
+		out.writeInt(id);
+		out.writeString(name);
+	}
+
+	/* package */ static Patient readFrom(CacheSnapshot.Reader in)
+	{
+		final Patient patient = new Patient();
+		patient.id = in.readInt();
+		patient.name = in.readString();
+		return patient;
+	}
+
 	@Override
 	public boolean equals(Object other)
 	{
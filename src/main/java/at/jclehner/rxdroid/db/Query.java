@@ -0,0 +1,337 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import at.jclehner.rxdroid.util.DateTime;
+
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.Where;
+
+/**
+ * Describes the entries to be returned by {@link Database#query(Class, Query)}.
+ * <p>
+ * A query consists of equality and range conditions on a few well-known fields,
+ * all of which must be met by an entry. When using the custom cache, the query is
+ * answered using the most selective index available, falling back to looking at
+ * all entries only if no index fits. Otherwise, the same query is translated into
+ * an ORMLite <code>QueryBuilder</code>.
+ * <p>
+ * Conditions on {@link Field#DATE} compare calendar days; their values may be given
+ * either as a <code>Date</code>, or as an epoch-day (see {@link DateTime#toEpochDay(Date)}).
+ * <p>
+ * Not all fields are supported for all entry classes:
+ * <ul>
+ * <li>{@link Drug}: {@link Field#ID}, {@link Field#PATIENT_ID}, {@link Field#ACTIVE}</li>
+ * <li>{@link DoseEvent}: {@link Field#ID}, {@link Field#DRUG_ID}, {@link Field#DATE},
+ * {@link Field#DOSE_TIME}</li>
+ * <li>{@link Patient}: {@link Field#ID}</li>
+ * </ul>
+ *
+ * @author Joseph Lehner
+ *
+ */
+public final class Query
+{
+	public enum Field
+	{
+		ID("id"),
+		DRUG_ID("drug_id"),
+		PATIENT_ID("patient_id"),
+		DATE(DoseEvent.COLUMN_EPOCH_DAY),
+		DOSE_TIME("doseTime"),
+		ACTIVE("active");
+
+		final String columnName;
+
+		private Field(String columnName) {
+			this.columnName = columnName;
+		}
+	}
+
+	private static final class Condition
+	{
+		final Field field;
+		// Set for equality conditions only
+		final Object value;
+		// Inclusive and exclusive bound of range conditions; either may be null
+		final Comparable<?> from;
+		final Comparable<?> to;
+
+		Condition(Field field, Object value, Comparable<?> from, Comparable<?> to)
+		{
+			this.field = field;
+			this.value = value;
+			this.from = from;
+			this.to = to;
+		}
+
+		boolean isEquality() {
+			return value != null;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		boolean matches(Object actual)
+		{
+			if(isEquality())
+				return value.equals(actual);
+
+			if(from != null && ((Comparable) from).compareTo(actual) > 0)
+				return false;
+
+			if(to != null && ((Comparable) to).compareTo(actual) <= 0)
+				return false;
+
+			return true;
+		}
+	}
+
+	private final List<Condition> mConditions = new ArrayList<Condition>();
+
+	/**
+	 * Requires the field to be equal to the specified value.
+	 */
+	public Query eq(Field field, Object value)
+	{
+		if(value == null)
+			throw new NullPointerException();
+
+		mConditions.add(new Condition(field, normalize(field, value), null, null));
+		return this;
+	}
+
+	/**
+	 * Requires the field to be within the specified range.
+	 *
+	 * @param from Inclusive lower bound, or <code>null</code>.
+	 * @param to Exclusive upper bound, or <code>null</code>.
+	 */
+	public Query range(Field field, Comparable<?> from, Comparable<?> to)
+	{
+		mConditions.add(new Condition(field, null, (Comparable<?>) normalize(field, from),
+				(Comparable<?>) normalize(field, to)));
+		return this;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder("Query {");
+
+		for(Condition c : mConditions)
+		{
+			sb.append(" " + c.field);
+
+			if(c.isEquality())
+				sb.append("=" + c.value);
+			else
+				sb.append(" in [" + c.from + ", " + c.to + ")");
+		}
+
+		return sb.append(" }").toString();
+	}
+
+	/**
+	 * Returns the value of the first equality condition on the specified field,
+	 * or <code>null</code>.
+	 */
+	/* package */ Object getValue(Field field)
+	{
+		for(Condition c : mConditions)
+		{
+			if(c.field == field && c.isEquality())
+				return c.value;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the lower bound of the first range condition on the specified
+	 * field, or <code>null</code>.
+	 */
+	/* package */ Comparable<?> getFrom(Field field)
+	{
+		for(Condition c : mConditions)
+		{
+			if(c.field == field && !c.isEquality() && c.from != null)
+				return c.from;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the upper bound of the first range condition on the specified
+	 * field, or <code>null</code>.
+	 */
+	/* package */ Comparable<?> getTo(Field field)
+	{
+		for(Condition c : mConditions)
+		{
+			if(c.field == field && !c.isEquality() && c.to != null)
+				return c.to;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Throws an <code>IllegalArgumentException</code> if the query uses a
+	 * field that is not supported for the specified class.
+	 */
+	/* package */ void check(Class<? extends Entry> clazz)
+	{
+		for(Condition c : mConditions)
+		{
+			if(!isSupported(clazz, c.field))
+				throw new IllegalArgumentException(clazz.getSimpleName() + " has no field " + c.field);
+		}
+	}
+
+	/* package */ boolean matches(Entry entry)
+	{
+		for(Condition c : mConditions)
+		{
+			if(!c.matches(getValue(entry, c.field)))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds this query's conditions to an ORMLite <code>QueryBuilder</code>.
+	 */
+	/* package */ <T> void applyTo(QueryBuilder<T, Integer> qb) throws SQLException
+	{
+		if(mConditions.isEmpty())
+			return;
+
+		final Where<T, Integer> where = qb.where();
+		int clauses = 0;
+
+		for(Condition c : mConditions)
+		{
+			final String column = c.field.columnName;
+
+			if(c.isEquality())
+			{
+				if(c.field == Field.PATIENT_ID && c.value.equals(Patient.DEFAULT_PATIENT_ID))
+				{
+					// Drugs without a patient belong to the default patient
+					where.or(where.eq(column, c.value), where.isNull(column));
+				}
+				else
+					where.eq(column, c.value);
+
+				++clauses;
+			}
+			else
+			{
+				if(c.from != null)
+				{
+					where.ge(column, c.from);
+					++clauses;
+				}
+
+				if(c.to != null)
+				{
+					where.lt(column, c.to);
+					++clauses;
+				}
+			}
+		}
+
+		if(clauses > 1)
+			where.and(clauses);
+	}
+
+	// Dates are compared as epoch-days
+	private static Object normalize(Field field, Object value)
+	{
+		if(field == Field.DATE && value instanceof Date)
+			return DateTime.toEpochDay((Date) value);
+
+		return value;
+	}
+
+	private static boolean isSupported(Class<? extends Entry> clazz, Field field)
+	{
+		if(field == Field.ID)
+			return true;
+		else if(clazz == Drug.class)
+			return field == Field.PATIENT_ID || field == Field.ACTIVE;
+		else if(clazz == DoseEvent.class)
+			return field == Field.DRUG_ID || field == Field.DATE || field == Field.DOSE_TIME;
+
+		return false;
+	}
+
+	private static Object getValue(Entry entry, Field field)
+	{
+		if(field == Field.ID)
+			return entry.id;
+
+		if(entry instanceof Drug)
+		{
+			final Drug drug = (Drug) entry;
+
+			switch(field)
+			{
+				case PATIENT_ID:
+					return drug.getPatientId();
+
+				case ACTIVE:
+					return drug.isActive();
+
+				default:
+					break;
+			}
+		}
+		else if(entry instanceof DoseEvent)
+		{
+			final DoseEvent event = (DoseEvent) entry;
+
+			switch(field)
+			{
+				case DRUG_ID:
+					return event.getDrugId();
+
+				case DATE:
+					return event.getEpochDay();
+
+				case DOSE_TIME:
+					return event.getDoseTime();
+
+				default:
+					break;
+			}
+		}
+
+		throw new IllegalArgumentException(entry.getClass().getSimpleName() + " has no field " + field);
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.util.Log;
+import at.jclehner.rxdroid.db.Query.Field;
+import at.jclehner.rxdroid.util.DateTime;
+
+/**
+ * Answers a {@link Query} using the custom cache.
+ * <p>
+ * For DoseEvents, the {@link DoseEventIndex} is used, picking the most selective
+ * lookup the query allows, in this order:
+ * <ol>
+ * <li>drug ID and date: a single day of a single drug</li>
+ * <li>date, or a bounded date range: the days in that range</li>
+ * <li>drug ID: all days of a single drug</li>
+ * <li>unbounded date range: all days on one side of the bound</li>
+ * </ol>
+ * Queries on an ID are answered by a cache lookup, queries for the Drugs of a
+ * patient by the {@link DrugPartitions} (in which case the result is ordered by
+ * sort-rank). All other queries are answered by looking at all cached entries
+ * of the requested class.
+ * <p>
+ * In all cases, the candidates returned by the lookup are then checked against
+ * all of the query's conditions.
+ *
+ * @author Joseph Lehner
+ *
+ */
+final class QueryPlanner
+{
+	private static final String TAG = QueryPlanner.class.getSimpleName();
+	private static final boolean LOGV = false;
+
+	static <T extends Entry> List<T> run(Class<T> clazz, Query query)
+	{
+		final Integer id = (Integer) query.getValue(Field.ID);
+		if(id != null)
+		{
+			if(LOGV) Log.v(TAG, query + ": by ID");
+
+			final T entry = Database.find(clazz, id);
+			if(entry == null || !query.matches(entry))
+				return Collections.emptyList();
+
+			return Collections.singletonList(entry);
+		}
+
+		final List<T> candidates;
+
+		if(clazz == DoseEvent.class)
+		{
+			@SuppressWarnings("unchecked")
+			final List<T> events = (List<T>) findDoseEvents(query);
+			candidates = events;
+		}
+		else if(clazz == Drug.class && query.getValue(Field.PATIENT_ID) != null)
+		{
+			if(LOGV) Log.v(TAG, query + ": by patient");
+
+			final List<Drug> drugs = new ArrayList<Drug>();
+			Database.getDrugPartitions().find((Integer) query.getValue(Field.PATIENT_ID), drugs);
+
+			@SuppressWarnings("unchecked")
+			final List<T> t = (List<T>) drugs;
+			candidates = t;
+		}
+		else
+		{
+			if(LOGV) Log.v(TAG, query + ": scan");
+			candidates = Database.getAll(clazz);
+		}
+
+		return filter(candidates, query);
+	}
+
+	private static List<? extends Entry> findDoseEvents(Query query)
+	{
+		final Integer drugId = (Integer) query.getValue(Field.DRUG_ID);
+		final Integer doseTime = (Integer) query.getValue(Field.DOSE_TIME);
+		// All dates are epoch-days (see Query)
+		final Integer day = (Integer) query.getValue(Field.DATE);
+
+		final Integer from = day != null ? day : (Integer) query.getFrom(Field.DATE);
+		// Exclusive
+		final Integer to = day != null ? Integer.valueOf(day + 1) : (Integer) query.getTo(Field.DATE);
+
+		// Ensures that all events on or after `from` have been paged in
+		final DoseEventIndex index = Database.getDoseEventIndex(from != null ? DateTime.fromEpochDay(from) : null);
+		final List<DoseEvent> events = new ArrayList<DoseEvent>();
+
+		if(drugId != null && day != null)
+		{
+			if(LOGV) Log.v(TAG, query + ": by drug and date");
+			index.find(drugId, day, doseTime, events);
+		}
+		else if(from != null && to != null)
+		{
+			if(LOGV) Log.v(TAG, query + ": by date range");
+			index.findBetween(from, to, events);
+		}
+		else if(drugId != null)
+		{
+			if(LOGV) Log.v(TAG, query + ": by drug");
+			index.find(drugId, null, doseTime, events);
+		}
+		else if(from != null || to != null)
+		{
+			if(LOGV) Log.v(TAG, query + ": by open date range");
+			index.findBetween(from, to, events);
+		}
+		else
+		{
+			if(LOGV) Log.v(TAG, query + ": scan");
+			return Database.getAll(DoseEvent.class);
+		}
+
+		return events;
+	}
+
+	private static <T extends Entry> List<T> filter(List<? extends Entry> candidates, Query query)
+	{
+		final List<T> result = new ArrayList<T>();
+
+		for(Entry entry : candidates)
+		{
+			if(query.matches(entry))
+			{
+				@SuppressWarnings("unchecked")
+				final T t = (T) entry;
+				result.add(t);
+			}
+		}
+
+		return result;
+	}
+
+	private QueryPlanner() {}
+}
@@ -0,0 +1,97 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.db;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The storage used by {@link Database}.
+ * <p>
+ * A backend only has to load and store entries. Caching, indexing, change
+ * notification and the queueing of writes are all handled by <code>Database</code>,
+ * so these behave the same regardless of the backend being used.
+ * <p>
+ * Available backends are {@link OrmLiteBackend}, which stores entries in the
+ * app's SQLite DB, and {@link InMemoryBackend}, which has no dependencies on
+ * Android at all. Use {@link Database#reload(StorageBackend)} to switch backends.
+ * <p>
+ * All methods, except for {@link #write(List)}, may be called from any thread.
+ * The latter is only ever called by the DB writer thread.
+ *
+ * @author Joseph Lehner
+ *
+ */
+public abstract class StorageBackend
+{
+	/* package */ StorageBackend() {}
+
+	/**
+	 * Returns the version of the stored data's schema.
+	 * <p>
+	 * Used to check whether a {@link CacheSnapshot} is still valid.
+	 */
+	abstract int getVersion();
+
+	/**
+	 * Returns <code>true</code> if the stored data outlives the process, in
+	 * which case it makes sense to write cache snapshots.
+	 */
+	abstract boolean isPersistent();
+
+	/**
+	 * Returns all entries of the specified class, ordered by ID.
+	 */
+	abstract <T extends Entry> List<T> loadAll(Class<T> clazz);
+
+	/**
+	 * Returns all DoseEvents within the specified range, ordered by date.
+	 *
+	 * @param from Inclusive lower bound, or <code>null</code>.
+	 * @param to Exclusive upper bound, or <code>null</code>.
+	 */
+	abstract List<DoseEvent> loadDoseEvents(Date from, Date to);
+
+	/**
+	 * Returns all entries of the specified class matching the query.
+	 * <p>
+	 * Only used if the custom cache is disabled.
+	 */
+	abstract <T extends Entry> List<T> query(Class<T> clazz, Query query);
+
+	/**
+	 * Executes the operations in a single transaction.
+	 * <p>
+	 * Entries created by these operations must have been assigned an ID once
+	 * this function returns.
+	 */
+	abstract void write(List<DatabaseWriter.Operation> operations);
+
+	abstract void deleteIds(Class<? extends Entry> clazz, Collection<Integer> ids);
+
+	boolean isOpen() {
+		return true;
+	}
+
+	void close() {}
+}
@@ -55,7 +55,9 @@ import at.jclehner.rxdroid.Settings;
 import at.jclehner.rxdroid.Settings.DoseTimeInfo;
 import at.jclehner.rxdroid.Settings.Keys;
 import at.jclehner.rxdroid.Theme;
+import at.jclehner.rxdroid.db.Database;
 import at.jclehner.rxdroid.db.DoseEvent;
+import at.jclehner.rxdroid.db.DoseHistory;
 import at.jclehner.rxdroid.db.Drug;
 import at.jclehner.rxdroid.db.Entries;
 import at.jclehner.rxdroid.db.Schedule;
@@ -268,6 +270,7 @@ public class DoseLogFragment extends ExpandableListFragment
 
 		if((flags & SHOW_MISSED) != 0)
 		{
+			final DoseHistory.Range history = Database.getDoseHistory(drug.getId()).range();
 			final LocalDate scheduleEnd = drug.getScheduleEndDate();
 			final Date lastDate = scheduleEnd != null ? scheduleEnd.toDate() : mToday;
 
@@ -284,7 +287,7 @@ public class DoseLogFragment extends ExpandableListFragment
 
 							Fraction dose = drug.getDose(doseTime, date);
 
-							if(!dose.isZero() && !containsDoseEvent(events, date, doseTime))
+							if(!dose.isZero() && !history.contains(DateTime.toEpochDay(date), doseTime))
 							{
 								//Log.d(TAG, "Creating missed event: date=" + date + ", doseTime=" + doseTime);
 								infos.add(EventInfo.newMissedEvent(date, doseTime, dose));
@@ -342,17 +345,6 @@ public class DoseLogFragment extends ExpandableListFragment
 		return null;
 	}
 
-	private static boolean containsDoseEvent(List<DoseEvent> doseEvents, Date date, int doseTime)
-	{
-		for(DoseEvent doseEvent : doseEvents)
-		{
-			if(doseEvent.getDate().equals(date) && doseEvent.getDoseTime() == doseTime)
-				return true;
-		}
-
-		return false;
-	}
-
 	private class Adapter extends BaseExpandableListAdapter
 	{
 		private Timer mChildTimer = new Timer();
@@ -101,7 +101,8 @@ public final class Components
 			}
 		}
 
-		SystemEventReceiver.registerOnSystemTimeChangeListener(activity);
+		if(activity instanceof SystemEventReceiver.OnSystemTimeChangeListener)
+			SystemEventReceiver.registerOnSystemTimeChangeListener((SystemEventReceiver.OnSystemTimeChangeListener) activity);
 	}
 
 	public static void onResumeActivity(AppCompatActivity activity, int flags)
@@ -332,6 +332,36 @@ public final class DateTime
 		return Math.round((date2.getTime() - date1.getTime()) / (double) Constants.MILLIS_PER_DAY);
 	}
 
+	/**
+	 * Returns the number of days between 1970-01-01 and the date's local calendar date.
+	 * <p>
+	 * Two dates yield the same value if, and only if {@link #equalsDate(Date, Date)}
+	 * returns <code>true</code> for them.
+	 */
+	public static int toEpochDay(Date date)
+	{
+		final long millis = date.getTime();
+		final long localMillis = millis + TimeZone.getDefault().getOffset(millis);
+
+		if(localMillis >= 0)
+			return (int) (localMillis / Constants.MILLIS_PER_DAY);
+
+		return (int) ((localMillis - Constants.MILLIS_PER_DAY + 1) / Constants.MILLIS_PER_DAY);
+	}
+
+	/**
+	 * Returns the local midnight of the date that is the specified number of days
+	 * after 1970-01-01.
+	 *
+	 * @see #toEpochDay(Date)
+	 */
+	public static Date fromEpochDay(int epochDay)
+	{
+		final Calendar cal = new GregorianCalendar(1970, Calendar.JANUARY, 1);
+		cal.add(Calendar.DAY_OF_MONTH, epochDay);
+		return cal.getTime();
+	}
+
 	public static int getIsoWeekDayNumberIndex(Date date)
 	{
 		final Calendar cal = calendarFromDate(date);
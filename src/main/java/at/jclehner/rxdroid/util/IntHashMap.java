@@ -0,0 +1,232 @@
+/**
+ * RxDroid - A Medication Reminder
+ * Copyright (C) 2011-2014 Joseph Lehner <joseph.c.lehner@gmail.com>
+ *
+ *
+ * RxDroid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version. Additional terms apply (see LICENSE).
+ *
+ * RxDroid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RxDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.jclehner.rxdroid.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map using primitive <code>int</code> keys.
+ * <p>
+ * Unlike a <code>HashMap&lt;Integer, V&gt;</code>, lookups neither box the
+ * key, nor allocate entry objects. Collisions are resolved using linear
+ * probing; <code>null</code> values are not permitted, as a <code>null</code>
+ * slot marks an empty bucket.
+ *
+ * @author Joseph Lehner
+ *
+ * @param <V> the value type.
+ */
+public class IntHashMap<V>
+{
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] mKeys;
+	private Object[] mValues;
+	private int mSize;
+
+	public IntHashMap() {
+		this(MIN_CAPACITY);
+	}
+
+	public IntHashMap(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int key)
+	{
+		final int mask = mKeys.length - 1;
+
+		for(int i = hash(key) & mask; mValues[i] != null; i = (i + 1) & mask)
+		{
+			if(mKeys[i] == key)
+				return (V) mValues[i];
+		}
+
+		return null;
+	}
+
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Associates a value with the specified key.
+	 *
+	 * @return the previous value, or <code>null</code>.
+	 * @throws NullPointerException if <code>value</code> is <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value)
+	{
+		if(value == null)
+			throw new NullPointerException();
+
+		final int mask = mKeys.length - 1;
+		int i = hash(key) & mask;
+
+		for(; mValues[i] != null; i = (i + 1) & mask)
+		{
+			if(mKeys[i] == key)
+			{
+				final V old = (V) mValues[i];
+				mValues[i] = value;
+				return old;
+			}
+		}
+
+		mKeys[i] = key;
+		mValues[i] = value;
+
+		if(++mSize > (mKeys.length >> 1) + (mKeys.length >> 2))
+			rehash(mKeys.length << 1);
+
+		return null;
+	}
+
+	/**
+	 * Removes the mapping for the specified key.
+	 *
+	 * @return the removed value, or <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key)
+	{
+		final int mask = mKeys.length - 1;
+
+		for(int i = hash(key) & mask; mValues[i] != null; i = (i + 1) & mask)
+		{
+			if(mKeys[i] == key)
+			{
+				final V old = (V) mValues[i];
+				shiftBack(i);
+				--mSize;
+				return old;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns all keys, in no particular order.
+	 */
+	public int[] keys()
+	{
+		final int[] keys = new int[mSize];
+
+		for(int i = 0, k = 0; i != mKeys.length; ++i)
+		{
+			if(mValues[i] != null)
+				keys[k++] = mKeys[i];
+		}
+
+		return keys;
+	}
+
+	public void clear()
+	{
+		Arrays.fill(mValues, null);
+		mSize = 0;
+	}
+
+	/**
+	 * Closes the gap left by a removed entry.
+	 * <p>
+	 * As we're using linear probing, simply nulling the slot would break the
+	 * probe sequence of any entry that was displaced past it, so such entries
+	 * are moved back instead of using tombstones.
+	 */
+	private void shiftBack(int gap)
+	{
+		final int mask = mKeys.length - 1;
+
+		for(int i = (gap + 1) & mask; mValues[i] != null; i = (i + 1) & mask)
+		{
+			final int home = hash(mKeys[i]) & mask;
+
+			// Move the entry if its home bucket is not within (gap, i]
+			if(gap <= i ? (home <= gap || home > i) : (home <= gap && home > i))
+			{
+				mKeys[gap] = mKeys[i];
+				mValues[gap] = mValues[i];
+				gap = i;
+			}
+		}
+
+		mValues[gap] = null;
+	}
+
+	private void rehash(int capacity)
+	{
+		final int[] keys = mKeys;
+		final Object[] values = mValues;
+
+		allocate(capacity);
+
+		final int mask = capacity - 1;
+
+		for(int k = 0; k != keys.length; ++k)
+		{
+			if(values[k] == null)
+				continue;
+
+			int i = hash(keys[k]) & mask;
+			while(mValues[i] != null)
+				i = (i + 1) & mask;
+
+			mKeys[i] = keys[k];
+			mValues[i] = values[k];
+		}
+	}
+
+	private void allocate(int capacity)
+	{
+		mKeys = new int[capacity];
+		mValues = new Object[capacity];
+	}
+
+	private static int capacityFor(int expectedSize)
+	{
+		int capacity = MIN_CAPACITY;
+		while(capacity < expectedSize * 2)
+			capacity <<= 1;
+
+		return capacity;
+	}
+
+	private static int hash(int key)
+	{
+		// Database IDs are sequential; spread them so that clusters
+		// of consecutive IDs don't end up as long probe sequences.
+		final int h = key * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
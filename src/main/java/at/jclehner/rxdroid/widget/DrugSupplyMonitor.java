@@ -33,8 +33,9 @@ import android.view.View;
 import android.widget.TextView;
 
 import androidx.appcompat.widget.AppCompatTextView;
+import androidx.core.view.ViewCompat;
 import at.jclehner.rxdroid.Fraction;
-import at.jclehner.rxdroid.Fraction.MutableFraction;
+import at.jclehner.rxdroid.FractionMath;
 import at.jclehner.rxdroid.R;
 import at.jclehner.rxdroid.Theme;
 import at.jclehner.rxdroid.db.Database;
@@ -56,6 +57,9 @@ public class DrugSupplyMonitor extends AppCompatTextView implements
 
 	private boolean mHasLowSupply;
 
+	// The drug this view is currently listening to
+	private int mListenerDrugId = -1;
+
 	public DrugSupplyMonitor(Context context) {
 		super(context);
 	}
@@ -75,6 +79,7 @@ public class DrugSupplyMonitor extends AppCompatTextView implements
 	public void setDrug(Drug drug)
 	{
 		mDrug = drug;
+		updateEventListener();
 		updateText(drug, mDate);
 	}
 
@@ -88,6 +93,7 @@ public class DrugSupplyMonitor extends AppCompatTextView implements
 	{
 		mDrug = drug;
 		mDate = date;
+		updateEventListener();
 		updateText(drug, date);
 	}
 
@@ -128,7 +134,7 @@ public class DrugSupplyMonitor extends AppCompatTextView implements
 	protected void onAttachedToWindow()
 	{
 		super.onAttachedToWindow();
-		Database.registerEventListener(this);
+		updateEventListener();
 	}
 
 	@Override
@@ -136,6 +142,24 @@ public class DrugSupplyMonitor extends AppCompatTextView implements
 	{
 		super.onDetachedFromWindow();
 		Database.unregisterEventListener(this);
+		mListenerDrugId = -1;
+	}
+
+	private void updateEventListener()
+	{
+		final int drugId = mDrug != null && ViewCompat.isAttachedToWindow(this) ? mDrug.getId() : -1;
+		if(drugId == mListenerDrugId)
+			return;
+
+		Database.unregisterEventListener(this);
+
+		if(drugId != -1)
+		{
+			Database.registerEventListener(this, Drug.class, drugId);
+			Database.registerEventListener(this, DoseEvent.class, drugId);
+		}
+
+		mListenerDrugId = drugId;
 	}
 
 	private void updateTextIfApplicable(Entry entry)
@@ -170,7 +194,7 @@ public class DrugSupplyMonitor extends AppCompatTextView implements
 
 		if(drug != null)
 		{
-			MutableFraction currentSupply = drug.getCurrentSupply().mutate();
+			long currentSupply = drug.getCurrentSupply().toPackedLong();
 
 			if(drug.isActive() && date != null)
 			{
@@ -179,7 +203,7 @@ public class DrugSupplyMonitor extends AppCompatTextView implements
 				{
 					//Fraction doseInTimePeriod_smart = Entries.getTotalDoseInTimePeriod_smart(drug, today, date);
 					Fraction doseInTimePeriod_dumb = Entries.getTotalDoseInTimePeriod_dumb(drug, today, date, true);
-					currentSupply.subtract(doseInTimePeriod_dumb);
+					currentSupply = FractionMath.subtract(currentSupply, doseInTimePeriod_dumb.toPackedLong());
 				}
 				else if(date.equals(today) && Entries.hasLowSupplies(drug, date))
 				{
@@ -189,8 +213,8 @@ public class DrugSupplyMonitor extends AppCompatTextView implements
 				}
 			}
 
-			if(!currentSupply.isNegative())
-				setText(Util.prettify(currentSupply));
+			if(!FractionMath.isNegative(currentSupply))
+				setText(Util.prettify(Fraction.fromPackedLong(currentSupply)));
 			else
 				setText("0");
 		}